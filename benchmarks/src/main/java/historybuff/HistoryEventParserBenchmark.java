@@ -0,0 +1,115 @@
+package historybuff;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link HistoryEventParser} with the regular expression parser it replaced in
+ * WikipediaEventSource, on the Wikipedia extracts response that the HistoryBuff tests use. Run
+ * with {@code -prof gc} to see the allocation per parse, reported as {@code gc.alloc.rate.norm}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HistoryEventParserBenchmark {
+    private String json;
+
+    @Setup
+    public void setUp() throws IOException {
+        InputStream in = HistoryEventParserBenchmark.class.getResourceAsStream("March_14.json");
+        if (in == null) {
+            throw new IOException("Missing resource historybuff/March_14.json");
+        }
+        StringBuilder text = new StringBuilder();
+        Reader reader = new InputStreamReader(in, Charset.forName("US-ASCII"));
+        try {
+            char[] buffer = new char[4096];
+            for (int read; (read = reader.read(buffer)) != -1;) {
+                text.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+        json = text.toString();
+        if (!Legacy.parseJson(json).equals(HistoryEventParser.parse(json))) {
+            throw new IllegalStateException("Parsers disagree on historybuff/March_14.json");
+        }
+    }
+
+    @Benchmark
+    public List<String> parseLegacy() {
+        return Legacy.parseJson(json);
+    }
+
+    @Benchmark
+    public List<String> parse() {
+        return HistoryEventParser.parse(json);
+    }
+
+    /**
+     * The parser of WikipediaEventSource before it was replaced by {@link HistoryEventParser}.
+     */
+    static final class Legacy {
+        private static final int DELIMITER_SIZE = 2;
+        private static final int SIZE_OF_EVENTS = 10;
+
+        private Legacy() {
+        }
+
+        static List<String> parseJson(String text) {
+            ArrayList<String> events = new ArrayList<String>();
+            int start = text.indexOf("\\nEvents\\n");
+            int end = text.indexOf("\\n\\n\\nBirths");
+            if (start == -1 || end < start + SIZE_OF_EVENTS) {
+                return events;
+            }
+            text = text.substring(start + SIZE_OF_EVENTS, end);
+            if (text.isEmpty()) {
+                return events;
+            }
+            int startIndex = 0, endIndex = 0;
+            while (endIndex != -1) {
+                endIndex = text.indexOf("\\n", startIndex + DELIMITER_SIZE);
+                String eventText =
+                        (endIndex == -1 ? text.substring(startIndex) : text.substring(startIndex,
+                                endIndex));
+                Pattern pattern = Pattern.compile("\\\\u2013\\s*");
+                Matcher matcher = pattern.matcher(eventText);
+                eventText = matcher.replaceAll("");
+                pattern = Pattern.compile("(^\\d+)");
+                matcher = pattern.matcher(eventText);
+                if (matcher.find()) {
+                    eventText = matcher.replaceFirst(matcher.group(1) + ",");
+                }
+                eventText = "In " + eventText;
+                startIndex = endIndex + 2;
+                events.add(eventText);
+            }
+            Collections.reverse(events);
+            return events;
+        }
+    }
+}
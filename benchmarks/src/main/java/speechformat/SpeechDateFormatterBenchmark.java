@@ -0,0 +1,152 @@
+package speechformat;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares {@link SpeechDateFormatter} with the {@code Calendar} and {@code SimpleDateFormat} code
+ * it replaced in TidePooler: parsing a date slot into the NOAA begin date and the spoken date, and
+ * speaking the time of a tide. Run with {@code -prof gc} to see the allocation per call, reported
+ * as {@code gc.alloc.rate.norm}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SpeechDateFormatterBenchmark {
+    private static final int DAYS = 366;
+    private static final long MILLIS_PER_MINUTE = 60000L;
+
+    private final SpeechDateFormatter formatter = new SpeechDateFormatter(TimeZone.getDefault());
+    private String[] slotDates;
+    private long[] tideTimes;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        // a year of slot values and tide times, so no result can be constant folded
+        slotDates = new String[DAYS];
+        tideTimes = new long[DAYS];
+        long firstDay = SpeechDateFormatter.toEpochDay(2016, 1, 1);
+        for (int i = 0; i < DAYS; i++) {
+            long epochDay = firstDay + i;
+            slotDates[i] =
+                    SpeechDateFormatter.getYear(epochDay) + "-"
+                            + SpeechDateFormatter.getMonth(epochDay) + "-"
+                            + SpeechDateFormatter.getDayOfMonth(epochDay);
+            tideTimes[i] = (epochDay * 1440 + i * 37 % 1440) * MILLIS_PER_MINUTE;
+        }
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == DAYS ? 0 : index + 1;
+        return index;
+    }
+
+    @Benchmark
+    public void slotDateLegacy(final Blackhole blackhole) throws ParseException {
+        Date date = new SimpleDateFormat("yyyy-MM-d").parse(slotDates[nextIndex()]);
+        blackhole.consume(Legacy.getBeginDate(date));
+        blackhole.consume(Legacy.getFormattedDate(date));
+    }
+
+    @Benchmark
+    public void slotDate(final Blackhole blackhole) throws ParseException {
+        long epochDay = SpeechDateFormatter.parseDate(slotDates[nextIndex()]);
+        blackhole.consume(SpeechDateFormatter.formatBasicDate(epochDay));
+        blackhole.consume(formatter.formatDate(epochDay));
+    }
+
+    @Benchmark
+    public String timeLegacy() {
+        return Legacy.getFormattedTime(new Date(tideTimes[nextIndex()]));
+    }
+
+    @Benchmark
+    public String time() {
+        int minuteOfDay = formatter.toMinuteOfDay(tideTimes[nextIndex()]);
+        return formatter.formatTime(minuteOfDay / 60, minuteOfDay % 60);
+    }
+
+    /**
+     * The date code of TidePooler before {@link SpeechDateFormatter}, from its speechlet and
+     * AlexaDateUtil.
+     */
+    private static final class Legacy {
+        private static final String[] DAYS_OF_MONTH = {"1st", "2nd", "3rd", "4th", "5th", "6th",
+                "7th", "8th", "9th", "10th", "11th", "12th", "13th", "14th", "15th", "16th", "17th",
+                "18th", "19th", "20th", "21st", "22nd", "23rd", "24th", "25th", "26th", "27th",
+                "28th", "29th", "30th", "31st" };
+        private static final String[] MONTHS = {"January", "February", "March", "April", "May",
+                "June", "July", "August", "September", "October", "November", "December" };
+        private static final String[] DAYS_OF_WEEK = {"Sunday", "Monday", "Tuesday",
+                "Wednesday", "Thursday", "Friday", "Saturday" };
+
+        private static String getBeginDate(final Date date) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTime(date);
+            int month = calendar.get(Calendar.MONTH) + 1;
+            String monthString = month < 10 ? "0" + Integer.toString(month) : Integer
+                    .toString(month);
+            int day = calendar.get(Calendar.DATE);
+            String dayString = day < 10 ? "0" + Integer.toString(day) : Integer.toString(day);
+            return calendar.get(Calendar.YEAR) + monthString + dayString;
+        }
+
+        private static String getFormattedDate(final Date date) {
+            Calendar todayCal = Calendar.getInstance();
+            todayCal.setTime(new Date());
+            Calendar dateCal = Calendar.getInstance();
+            dateCal.setTime(date);
+            if (todayCal.get(Calendar.YEAR) == dateCal.get(Calendar.YEAR)) {
+                return DAYS_OF_WEEK[dateCal.get(Calendar.DAY_OF_WEEK) - 1] + ' '
+                        + MONTHS[dateCal.get(Calendar.MONTH)] + ' '
+                        + DAYS_OF_MONTH[dateCal.get(Calendar.DATE) - 1];
+            }
+            return DAYS_OF_WEEK[dateCal.get(Calendar.DAY_OF_WEEK) - 1] + ' '
+                    + (dateCal.get(Calendar.MONTH) + 1) + '/' + dateCal.get(Calendar.DATE) + '/'
+                    + dateCal.get(Calendar.YEAR);
+        }
+
+        private static String getFormattedTime(final Date date) {
+            Calendar dateCal = Calendar.getInstance();
+            dateCal.setTime(date);
+            int hours = dateCal.get(Calendar.HOUR_OF_DAY);
+            int minutes = dateCal.get(Calendar.MINUTE);
+            String periodOfDay;
+            if (hours < 12) {
+                periodOfDay = " in the morning";
+            } else if (hours < 17) {
+                periodOfDay = " in the afternoon";
+            } else if (hours < 20) {
+                periodOfDay = " in the evening";
+            } else {
+                periodOfDay = " at night";
+            }
+            hours = dateCal.get(Calendar.HOUR);
+            hours = hours == 0 ? 12 : hours;
+            String minuteString = minutes < 10 ? "0" + Integer.toString(minutes) : Integer
+                    .toString(minutes);
+            return Integer.toString(hours) + ":" + minuteString + periodOfDay;
+        }
+    }
+}
@@ -8,6 +8,20 @@
     or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
  */
 import helloworld.HelloWorldSpeechlet;
+import historybuff.HistoryBuffSpeechlet;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import launcher.BoundedSpeechletServlet;
+import launcher.LauncherSettings;
+import launcher.SkillRegistry;
+import lupine.LupineSpeechlet;
+import minecrafthelper.MinecraftSpeechlet;
 
 import org.apache.log4j.BasicConfigurator;
 import org.eclipse.jetty.server.Connector;
@@ -20,17 +34,25 @@ import org.eclipse.jetty.server.SslConnectionFactory;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import savvyconsumer.SavvyConsumerSpeechlet;
+import scorekeeper.ScoreKeeperSpeechlet;
 import session.SessionSpeechlet;
+import spacegeek.SpaceGeekSpeechlet;
+import tidepooler.TidePoolerSpeechlet;
+import wiseguy.WiseGuySpeechlet;
 
 import com.amazon.speech.Sdk;
-import com.amazon.speech.speechlet.Speechlet;
-import com.amazon.speech.speechlet.servlet.SpeechletServlet;
 
 /**
  * Shared launcher for executing all sample skills within a single servlet container.
  */
 public final class Launcher {
+    private static final Logger log = LoggerFactory.getLogger(Launcher.class);
+
     /**
      * port number for the jetty server.
      */
@@ -41,6 +63,11 @@ public final class Launcher {
      */
     private static final String HTTPS_SCHEME = "https";
 
+    /**
+     * Seconds an idle async executor thread is kept alive.
+     */
+    private static final long ASYNC_KEEP_ALIVE_SECONDS = 60L;
+
     /**
      * default constructor.
      */
@@ -59,8 +86,15 @@ public final class Launcher {
         // Configure logging to output to the console with default level of INFO
         BasicConfigurator.configure();
 
-        // Configure server and its associated servlets
-        Server server = new Server();
+        LauncherSettings settings = LauncherSettings.fromSystemProperties();
+
+        // Configure server and its associated servlets. All skills share one bounded worker pool.
+        QueuedThreadPool threadPool =
+                new QueuedThreadPool(settings.getMaxThreads(), settings.getMinThreads(),
+                        settings.getIdleTimeoutMillis(), new ArrayBlockingQueue<Runnable>(
+                                settings.getMaxQueuedRequests()));
+        threadPool.setName("skills");
+        Server server = new Server(threadPool);
         SslConnectionFactory sslConnectionFactory = new SslConnectionFactory();
         SslContextFactory sslContextFactory = sslConnectionFactory.getSslContextFactory();
         sslContextFactory.setKeyStorePath(System.getProperty("javax.net.ssl.keyStore"));
@@ -84,15 +118,75 @@ public final class Launcher {
         ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
         context.setContextPath("/");
         server.setHandler(context);
-        context.addServlet(new ServletHolder(createServlet(new HelloWorldSpeechlet())), "/hello");
-        context.addServlet(new ServletHolder(createServlet(new SessionSpeechlet())), "/session");
+        Executor asyncExecutor = null;
+        if (settings.getExecutionMode() == LauncherSettings.ExecutionMode.ASYNC) {
+            asyncExecutor = createAsyncExecutor(settings);
+        }
+        for (SkillRegistry.Skill skill : createSkillRegistry().getSkills()) {
+            int maxRequests = settings.getMaxRequests(skill.getName());
+            BoundedSpeechletServlet servlet =
+                    createServlet(skill, maxRequests, asyncExecutor,
+                            settings.getAsyncTimeoutMillis());
+            ServletHolder holder = new ServletHolder(servlet);
+            holder.setAsyncSupported(servlet.isAsync());
+            context.addServlet(holder, skill.getPath());
+            log.info("Mounted {} at {}, max concurrent requests {}", skill.getSpeechlet()
+                    .getClass().getSimpleName(), skill.getPath(), maxRequests);
+        }
         server.start();
         server.join();
     }
 
-    private static SpeechletServlet createServlet(final Speechlet speechlet) {
-        SpeechletServlet servlet = new SpeechletServlet();
-        servlet.setSpeechlet(speechlet);
+    /**
+     * Creates the registry of every skill served by this launcher.
+     *
+     * @return the skill registry
+     */
+    private static SkillRegistry createSkillRegistry() {
+        return new SkillRegistry()
+                .register("/hello", new HelloWorldSpeechlet())
+                .register("/session", new SessionSpeechlet())
+                .register("/tidepooler", new TidePoolerSpeechlet())
+                .register("/historybuff", new HistoryBuffSpeechlet())
+                .register("/lupine", new LupineSpeechlet())
+                .register("/scorekeeper", new ScoreKeeperSpeechlet())
+                .register("/savvyconsumer", new SavvyConsumerSpeechlet())
+                .register("/minecrafthelper", new MinecraftSpeechlet())
+                .register("/wiseguy", new WiseGuySpeechlet())
+                .register("/spacegeek", new SpaceGeekSpeechlet());
+    }
+
+    private static BoundedSpeechletServlet createServlet(final SkillRegistry.Skill skill,
+            final int maxRequests, final Executor asyncExecutor, final long asyncTimeoutMillis) {
+        BoundedSpeechletServlet servlet =
+                new BoundedSpeechletServlet(skill.getPath(), maxRequests, asyncExecutor,
+                        asyncTimeoutMillis);
+        servlet.setSpeechlet(skill.getSpeechlet());
         return servlet;
     }
+
+    /**
+     * Creates the executor async mode requests are served on. It is sized independently of the
+     * Jetty worker pool, since its threads spend most of their time blocked on upstream calls.
+     */
+    private static Executor createAsyncExecutor(final LauncherSettings settings) {
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(settings.getAsyncMaxThreads(),
+                        settings.getAsyncMaxThreads(), ASYNC_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<Runnable>(settings.getAsyncMaxQueuedRequests()),
+                        new ThreadFactory() {
+                            private final AtomicInteger count = new AtomicInteger();
+
+                            @Override
+                            public Thread newThread(final Runnable runnable) {
+                                Thread thread =
+                                        new Thread(runnable, "skills-async-"
+                                                + count.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 }
@@ -0,0 +1,102 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package historybuff;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the event list being read by each session on the server, so only a cursor has to travel
+ * in the session attributes. Sessions that have not been read for the idle timeout are evicted;
+ * the cursor carries the day, so an evicted session, or one continued on another server, can
+ * still be served from the event index.
+ */
+public class EventPaginationStore {
+    private final long idleTimeoutMillis;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong nextSweep = new AtomicLong();
+
+    /**
+     * @param idleTimeoutMillis
+     *            time after which a session that has not been read is evicted
+     */
+    public EventPaginationStore(final long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Stores the events being read by a session.
+     *
+     * @param sessionId
+     *            the session ID
+     * @param events
+     *            the events of the day the session is reading
+     */
+    public void put(final String sessionId, final List<String> events) {
+        long now = System.currentTimeMillis();
+        entries.put(sessionId, new Entry(events, now));
+        evictIdle(now);
+    }
+
+    /**
+     * Returns the events being read by a session.
+     *
+     * @param sessionId
+     *            the session ID
+     * @return the events, or null if the session is unknown or was evicted
+     */
+    public List<String> get(final String sessionId) {
+        Entry entry = entries.get(sessionId);
+        if (entry == null) {
+            return null;
+        }
+        entry.lastAccess = System.currentTimeMillis();
+        return entry.events;
+    }
+
+    /**
+     * Removes a session, e.g. when it ends.
+     */
+    public void remove(final String sessionId) {
+        entries.remove(sessionId);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Sweeps idle sessions, at most once per idle timeout, on the thread storing a session.
+     */
+    private void evictIdle(final long now) {
+        long sweepAt = nextSweep.get();
+        if (now < sweepAt || !nextSweep.compareAndSet(sweepAt, now + idleTimeoutMillis)) {
+            return;
+        }
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            if (now - it.next().lastAccess > idleTimeoutMillis) {
+                it.remove();
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final List<String> events;
+        private volatile long lastAccess;
+
+        private Entry(final List<String> events, final long lastAccess) {
+            this.events = events;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
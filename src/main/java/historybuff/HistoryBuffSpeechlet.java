@@ -9,25 +9,18 @@
  */
 package historybuff;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.nio.charset.Charset;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
-import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import speechformat.SpeechDateFormatter;
+
 import com.amazon.speech.slu.Intent;
 import com.amazon.speech.slu.Slot;
 import com.amazon.speech.speechlet.IntentRequest;
@@ -93,32 +86,21 @@ import com.amazon.speech.ui.SimpleCard;
 public class HistoryBuffSpeechlet implements Speechlet {
     private static final Logger log = LoggerFactory.getLogger(HistoryBuffSpeechlet.class);
 
-    /**
-     * URL prefix to download history content from Wikipedia.
-     */
-    private static final String URL_PREFIX =
-            "https://en.wikipedia.org/w/api.php?action=query&prop=extracts"
-                    + "&format=json&explaintext=&exsectionformat=plain&redirects=&titles=";
-
     /**
      * Constant defining number of events to be read at one time.
      */
     private static final int PAGINATION_SIZE = 3;
 
-    /**
-     * Length of the delimiter between individual events.
-     */
-    private static final int DELIMITER_SIZE = 2;
-
     /**
      * Constant defining session attribute key for the event index.
      */
     private static final String SESSION_INDEX = "index";
 
     /**
-     * Constant defining session attribute key for the event text key for date of events.
+     * Constant defining session attribute key for the day of the year of the events being read,
+     * see {@link HistoryEventIndex#getDayIndex(int, int)}.
      */
-    private static final String SESSION_TEXT = "text";
+    private static final String SESSION_DAY = "day";
 
     /**
      * Constant defining session attribute key for the intent slot key for the date of events.
@@ -126,9 +108,19 @@ public class HistoryBuffSpeechlet implements Speechlet {
     private static final String SLOT_DAY = "day";
 
     /**
-     * Size of events from Wikipedia response.
+     * Default time after which the events of a day are loaded again from Wikipedia.
+     */
+    private static final long DEFAULT_REFRESH_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Default time after which the events read by an inactive session are dropped.
      */
-    private static final int SIZE_OF_EVENTS = 10;
+    private static final long DEFAULT_SESSION_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Default time between checks of the history snapshot file for a new version.
+     */
+    private static final long DEFAULT_SNAPSHOT_CHECK_MILLIS = TimeUnit.MINUTES.toMillis(1);
 
     /**
      * Array of month names.
@@ -148,6 +140,35 @@ public class HistoryBuffSpeechlet implements Speechlet {
             "December"
     };
 
+    private final SnapshotEventSource snapshotSource;
+    private final HistoryEventIndex eventIndex;
+    private final EventPaginationStore paginationStore;
+
+    public HistoryBuffSpeechlet() {
+        // with -Dhistorybuff.snapshot pointing to a file built by HistorySnapshotBuilder, events
+        // are served from the snapshot, and Wikipedia is only called for days it does not cover
+        String snapshotFile = System.getProperty("historybuff.snapshot");
+        if (snapshotFile != null) {
+            snapshotSource = new SnapshotEventSource(new File(snapshotFile));
+            snapshotSource.startWatching(Long.getLong("historybuff.snapshotCheckMillis",
+                    DEFAULT_SNAPSHOT_CHECK_MILLIS));
+        } else {
+            snapshotSource = null;
+        }
+        eventIndex =
+                new HistoryEventIndex(new WikipediaEventSource(), Long.getLong(
+                        "historybuff.refreshIntervalMillis", DEFAULT_REFRESH_INTERVAL_MILLIS));
+        paginationStore =
+                new EventPaginationStore(Long.getLong("historybuff.sessionIdleMillis",
+                        DEFAULT_SESSION_IDLE_MILLIS));
+        // load all 366 days in the background unless disabled with -Dhistorybuff.preload=false
+        // or served from a snapshot
+        if (snapshotSource == null
+                && Boolean.parseBoolean(System.getProperty("historybuff.preload", "true"))) {
+            eventIndex.preload();
+        }
+    }
+
     @Override
     public void onSessionStarted(final SessionStartedRequest request, final Session session)
             throws SpeechletException {
@@ -211,7 +232,7 @@ public class HistoryBuffSpeechlet implements Speechlet {
         log.info("onSessionEnded requestId={}, sessionId={}", request.getRequestId(),
                 session.getSessionId());
 
-        // any session cleanup logic would go here
+        paginationStore.remove(session.getSessionId());
     }
 
     /**
@@ -232,31 +253,24 @@ public class HistoryBuffSpeechlet implements Speechlet {
     }
 
     /**
-     * Function to accept an intent containing a Day slot (date object) and return the Calendar
-     * representation of that slot value. If the user provides a date, then use that, otherwise use
-     * today. The date is in server time, not in the user's time zone. So "today" for the user may
-     * actually be tomorrow.
+     * Function to accept an intent containing a Day slot (date object) and return the date of that
+     * slot value. If the user provides a date, then use that, otherwise use today. The date is in
+     * server time, not in the user's time zone. So "today" for the user may actually be tomorrow.
      * 
      * @param intent
      *            the intent object containing the day slot
-     * @return the Calendar representation of that date
+     * @return the date, in days since 1970-01-01
      */
-    private Calendar getCalendar(Intent intent) {
+    private long getEpochDay(Intent intent) {
         Slot daySlot = intent.getSlot(SLOT_DAY);
-        Date date;
-        Calendar calendar = Calendar.getInstance();
         if (daySlot != null && daySlot.getValue() != null) {
-            DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-d");
             try {
-                date = dateFormat.parse(daySlot.getValue());
+                return SpeechDateFormatter.parseDate(daySlot.getValue());
             } catch (ParseException e) {
-                date = new Date();
+                log.debug("Unable to parse day {}, using today", daySlot.getValue());
             }
-        } else {
-            date = new Date();
         }
-        calendar.setTime(date);
-        return calendar;
+        return SpeechDateFormatter.getDefault().today();
     }
 
     /**
@@ -271,15 +285,17 @@ public class HistoryBuffSpeechlet implements Speechlet {
      * @return SpeechletResponse object with voice/card response to return to the user
      */
     private SpeechletResponse handleFirstEventRequest(Intent intent, Session session) {
-        Calendar calendar = getCalendar(intent);
-        String month = MONTH_NAMES[calendar.get(Calendar.MONTH)];
-        String date = Integer.toString(calendar.get(Calendar.DATE));
+        long epochDay = getEpochDay(intent);
+        int monthNumber = SpeechDateFormatter.getMonth(epochDay);
+        int dayOfMonth = SpeechDateFormatter.getDayOfMonth(epochDay);
+        String month = MONTH_NAMES[monthNumber - 1];
+        String date = Integer.toString(dayOfMonth);
 
         String speechPrefixContent = "<p>For " + month + " " + date + "</p> ";
         String cardPrefixContent = "For " + month + " " + date + ", ";
         String cardTitle = "Events on " + month + " " + date;
 
-        ArrayList<String> events = getJsonEventsFromWikipedia(month, date);
+        List<String> events = getEvents(monthNumber, dayOfMonth);
         String speechOutput = "";
         if (events.isEmpty()) {
             speechOutput =
@@ -296,7 +312,7 @@ public class HistoryBuffSpeechlet implements Speechlet {
             speechOutputBuilder.append(speechPrefixContent);
             StringBuilder cardOutputBuilder = new StringBuilder();
             cardOutputBuilder.append(cardPrefixContent);
-            for (int i = 0; i < PAGINATION_SIZE; i++) {
+            for (int i = 0; i < PAGINATION_SIZE && i < events.size(); i++) {
                 speechOutputBuilder.append("<p>");
                 speechOutputBuilder.append(events.get(i));
                 speechOutputBuilder.append("</p> ");
@@ -317,10 +333,12 @@ public class HistoryBuffSpeechlet implements Speechlet {
             card.setTitle(cardTitle);
             card.setContent(cardOutputBuilder.toString());
 
-            // After reading the first 3 events, set the count to 3 and add the events
-            // to the session attributes
+            // After reading the first 3 events, set the count to 3 and keep the events on the
+            // server, so only the day and the count travel in the session attributes
             session.setAttribute(SESSION_INDEX, PAGINATION_SIZE);
-            session.setAttribute(SESSION_TEXT, events);
+            session.setAttribute(SESSION_DAY, HistoryEventIndex.getDayIndex(monthNumber,
+                    dayOfMonth));
+            paginationStore.put(session.getSessionId(), events);
 
             SpeechletResponse response = newAskResponse("<speak>" + speechOutput + "</speak>", true, repromptText, false);
             response.setCard(card);
@@ -329,20 +347,21 @@ public class HistoryBuffSpeechlet implements Speechlet {
     }
 
     /**
-     * Prepares the speech to reply to the user. Obtains the list of events as well as the current
-     * index from the session attributes. After getting the next set of events, increment the index
-     * and store it back in session attributes. This allows us to obtain new events without making
-     * repeated network calls, by storing values (events, index) during the interaction with the
-     * user.
+     * Prepares the speech to reply to the user. Obtains the list of events from the pagination
+     * store and the current index from the session attributes. After getting the next set of
+     * events, increment the index and store it back in session attributes. This allows us to
+     * obtain new events without making repeated network calls, while only a cursor (day, index)
+     * travels in the session during the interaction with the user.
      * 
      * @param session
-     *            object containing session attributes with events list and index
+     *            object containing session attributes with the day and index
      * @return SpeechletResponse object with voice/card response to return to the user
      */
     private SpeechletResponse handleNextEventRequest(Session session) {
         String cardTitle = "More events on this day in history";
-        ArrayList<String> events = (ArrayList<String>) session.getAttribute(SESSION_TEXT);
-        int index = (Integer) session.getAttribute(SESSION_INDEX);
+        List<String> events = getSessionEvents(session);
+        Integer sessionIndex = (Integer) session.getAttribute(SESSION_INDEX);
+        int index = sessionIndex == null ? 0 : sessionIndex;
         String speechOutput = "";
         String cardOutput = "";
         if (events == null) {
@@ -386,81 +405,54 @@ public class HistoryBuffSpeechlet implements Speechlet {
     }
 
     /**
-     * Download JSON-formatted list of events from Wikipedia, for a defined day/date, and return a
-     * String array of the events, with each event representing an element in the array.
+     * Returns the events the session is reading. They are normally kept in the pagination store;
+     * if the session was evicted or started on another server, they are looked up again from the
+     * day in the session attributes.
      * 
-     * @param month
-     *            the month to get events for, example: April
-     * @param date
-     *            the date to get events for, example: 7
-     * @return String array of events for that date, 1 event per element of the array
+     * @param session
+     *            object containing session attributes with the day
+     * @return the events, or null if the session has not asked for a day yet
      */
-    private ArrayList<String> getJsonEventsFromWikipedia(String month, String date) {
-        InputStreamReader inputStream = null;
-        BufferedReader bufferedReader = null;
-        String text = "";
-        try {
-            String line;
-            String urlStr = URL_PREFIX + month + "_" + date;
-            log.info("Creating a URL {}",urlStr);
-            URL url = new URL(URL_PREFIX + month + "_" + date);
-            inputStream = new InputStreamReader(url.openStream(), Charset.forName("US-ASCII"));
-            bufferedReader = new BufferedReader(inputStream);
-            StringBuilder builder = new StringBuilder();
-            while ((line = bufferedReader.readLine()) != null) {
-                builder.append(line);
-            }
-            text = builder.toString();
-        } catch (IOException e) {
-            // reset text variable to a blank string
-            text = "";
-        } finally {
-            IOUtils.closeQuietly(inputStream);
-            IOUtils.closeQuietly(bufferedReader);
+    private List<String> getSessionEvents(Session session) {
+        List<String> events = paginationStore.get(session.getSessionId());
+        if (events != null) {
+            return events;
         }
-        return parseJson(text);
+        Integer dayIndex = (Integer) session.getAttribute(SESSION_DAY);
+        if (dayIndex == null) {
+            return null;
+        }
+        events =
+                getEvents(HistoryEventIndex.getMonth(dayIndex),
+                        HistoryEventIndex.getDayOfMonth(dayIndex));
+        paginationStore.put(session.getSessionId(), events);
+        return events;
     }
 
     /**
-     * Parse JSON-formatted list of events/births/deaths from Wikipedia, extract list of events and
-     * split the events into a String array of individual events. Run Regex matchers to make the
-     * list pretty by adding a comma after the year to add a pause, and by removing a unicode char.
+     * Returns the events for a day from the snapshot, if any, or else from the event index, or an
+     * empty list if they are not available.
      * 
-     * @param text
-     *            the JSON formatted list of events/births/deaths for a certain date
-     * @return String array of events for that date, 1 event per element of the array
+     * @param month
+     *            the month to get events for, 1-12
+     * @param day
+     *            the day of the month to get events for
+     * @return the events for that date, most recent first
      */
-    private ArrayList<String> parseJson(String text) {
-        // sizeOf (\nEvents\n) is 10
-        text =
-                text.substring(text.indexOf("\\nEvents\\n") + SIZE_OF_EVENTS,
-                        text.indexOf("\\n\\n\\nBirths"));
-        ArrayList<String> events = new ArrayList<String>();
-        if (text.isEmpty()) {
-            return events;
-        }
-        int startIndex = 0, endIndex = 0;
-        while (endIndex != -1) {
-            endIndex = text.indexOf("\\n", startIndex + DELIMITER_SIZE);
-            String eventText =
-                    (endIndex == -1 ? text.substring(startIndex) : text.substring(startIndex,
-                            endIndex));
-            // replace dashes returned in text from Wikipedia's API
-            Pattern pattern = Pattern.compile("\\\\u2013\\s*");
-            Matcher matcher = pattern.matcher(eventText);
-            eventText = matcher.replaceAll("");
-            // add comma after year so Alexa pauses before continuing with the sentence
-            pattern = Pattern.compile("(^\\d+)");
-            matcher = pattern.matcher(eventText);
-            if (matcher.find()) {
-                eventText = matcher.replaceFirst(matcher.group(1) + ",");
+    private List<String> getEvents(int month, int day) {
+        if (snapshotSource != null) {
+            try {
+                return snapshotSource.getEvents(month, day);
+            } catch (IOException e) {
+                log.debug("Snapshot has no events for {}/{}: {}", month, day, e.getMessage());
             }
-            eventText = "In " + eventText;
-            startIndex = endIndex + 2;
-            events.add(eventText);
         }
-        Collections.reverse(events);
-        return events;
+        try {
+            return eventIndex.getEvents(month, day);
+        } catch (IOException e) {
+            log.warn("Unable to get events for {}/{}: {}", month, day, e.getMessage());
+            return Collections.<String> emptyList();
+        }
     }
 
     /**
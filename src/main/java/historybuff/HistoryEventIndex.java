@@ -0,0 +1,212 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package historybuff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory index of the events of all 366 days of the year, in front of another
+ * {@link HistoryEventSource}. Each day is loaded once, either by {@link #preload()} or on first
+ * request, and then served from memory. Days older than the refresh interval keep being served
+ * while a background thread loads them again, so a request never waits for a refresh.
+ */
+public class HistoryEventIndex implements HistoryEventSource {
+    private static final Logger log = LoggerFactory.getLogger(HistoryEventIndex.class);
+
+    /**
+     * Number of days in a leap year, the number of keys of the index.
+     */
+    static final int DAYS_PER_YEAR = 366;
+
+    /**
+     * Index of the first day of each month, counting February 29th.
+     */
+    private static final int[] FIRST_DAY_OF_MONTH = {
+            0, 31, 60, 91, 121, 152, 182, 213, 244, 274, 305, 335, DAYS_PER_YEAR
+    };
+
+    private final HistoryEventSource source;
+    private final long refreshIntervalMillis;
+    private final AtomicReferenceArray<Day> days = new AtomicReferenceArray<Day>(DAYS_PER_YEAR);
+    private final ExecutorService loader;
+
+    /**
+     * @param source
+     *            source to load events from
+     * @param refreshIntervalMillis
+     *            time after which a day is loaded again
+     */
+    public HistoryEventIndex(final HistoryEventSource source, final long refreshIntervalMillis) {
+        this.source = source;
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "history-loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the index of a day of the year, 0 for January 1st to 365 for December 31st,
+     * February 29th included.
+     *
+     * @param month
+     *            the month, 1-12
+     * @param day
+     *            the day of the month, 1-31
+     * @return the index of the day
+     */
+    static int getDayIndex(final int month, final int day) {
+        if (month < 1 || month > 12 || day < 1
+                || day > FIRST_DAY_OF_MONTH[month] - FIRST_DAY_OF_MONTH[month - 1]) {
+            throw new IllegalArgumentException("Invalid day " + month + "/" + day);
+        }
+        return FIRST_DAY_OF_MONTH[month - 1] + day - 1;
+    }
+
+    /**
+     * Returns the month, 1-12, of a day index.
+     */
+    static int getMonth(final int dayIndex) {
+        int month = 1;
+        while (FIRST_DAY_OF_MONTH[month] <= dayIndex) {
+            month++;
+        }
+        return month;
+    }
+
+    /**
+     * Returns the day of the month of a day index.
+     */
+    static int getDayOfMonth(final int dayIndex) {
+        return dayIndex - FIRST_DAY_OF_MONTH[getMonth(dayIndex) - 1] + 1;
+    }
+
+    @Override
+    public List<String> getEvents(final int month, final int day) throws IOException {
+        int index = getDayIndex(month, day);
+        Day entry = days.get(index);
+        if (entry == null) {
+            // not loaded yet, the only case where a request waits on the source
+            return load(index).events;
+        }
+        if (entry.isExpired() && entry.refreshing.compareAndSet(false, true)) {
+            scheduleRefresh(index);
+        }
+        return entry.events;
+    }
+
+    /**
+     * Returns the number of days loaded.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < DAYS_PER_YEAR; i++) {
+            if (days.get(i) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Loads every day not loaded yet on the background thread, one day at a time.
+     */
+    public void preload() {
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                int loaded = 0;
+                for (int i = 0; i < DAYS_PER_YEAR && !Thread.currentThread().isInterrupted(); i++) {
+                    if (days.get(i) != null) {
+                        continue;
+                    }
+                    try {
+                        load(i);
+                        loaded++;
+                    } catch (IOException e) {
+                        log.warn("Unable to preload events for {}/{}: {}", getMonth(i),
+                                getDayOfMonth(i), e.getMessage());
+                    }
+                }
+                log.info("Preloaded events for {} days", loaded);
+            }
+        });
+    }
+
+    /**
+     * Stops the background thread.
+     */
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+    private Day load(final int index) throws IOException {
+        List<String> events = source.getEvents(getMonth(index), getDayOfMonth(index));
+        Day entry =
+                new Day(Collections.unmodifiableList(new ArrayList<String>(events)),
+                        System.currentTimeMillis() + refreshIntervalMillis);
+        days.set(index, entry);
+        return entry;
+    }
+
+    private void scheduleRefresh(final int index) {
+        try {
+            loader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        load(index);
+                    } catch (IOException e) {
+                        // keep serving the old events and retry on a later request
+                        log.warn("Unable to refresh events for {}/{}: {}", getMonth(index),
+                                getDayOfMonth(index), e.getMessage());
+                        days.get(index).refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            days.get(index).refreshing.set(false);
+        }
+    }
+
+    /**
+     * The events of one day and when they are due for a refresh.
+     */
+    private static final class Day {
+        private final List<String> events;
+        private final long refreshAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Day(final List<String> events, final long refreshAt) {
+            this.events = events;
+            this.refreshAt = refreshAt;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= refreshAt;
+        }
+    }
+}
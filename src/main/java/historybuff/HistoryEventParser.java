@@ -0,0 +1,88 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package historybuff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Extracts the events from the JSON response of Wikipedia's extracts API for a day of the year.
+ * The response is read as is, with its JSON escapes: events are separated by new line escapes and
+ * years are followed by an escaped en dash.
+ * <p>
+ * The "Events" section is scanned once, from its end to its start, so the events come out most
+ * recent first. Each event is copied once into its final form, "In &lt;year&gt;, &lt;text&gt;",
+ * without regular expressions or intermediate strings.
+ */
+final class HistoryEventParser {
+    private static final String EVENTS_START = "\\nEvents\\n";
+    private static final String EVENTS_END = "\\n\\n\\nBirths";
+    private static final String NEW_LINE = "\\n";
+    private static final String EN_DASH = "\\u2013";
+    private static final String PREFIX = "In ";
+
+    private HistoryEventParser() {
+    }
+
+    /**
+     * Parses the events of a Wikipedia extracts response.
+     *
+     * @param json
+     *            the response body
+     * @return the events, most recent first, or an empty list if there is no events section
+     */
+    static List<String> parse(final String json) {
+        int start = json.indexOf(EVENTS_START);
+        int end = start == -1 ? -1 : json.indexOf(EVENTS_END, start);
+        List<String> events = new ArrayList<String>();
+        if (start == -1 || end == -1) {
+            return events;
+        }
+        start += EVENTS_START.length();
+
+        int eventEnd = end;
+        while (eventEnd > start) {
+            int separator = json.lastIndexOf(NEW_LINE, eventEnd - 1);
+            int eventStart = separator < start ? start : separator + NEW_LINE.length();
+            if (eventStart < eventEnd) {
+                events.add(formatEvent(json, eventStart, eventEnd));
+            }
+            eventEnd = separator < start ? start : separator;
+        }
+        return events;
+    }
+
+    /**
+     * Formats one event: adds a comma after the leading year so Alexa pauses before continuing
+     * with the sentence, and removes en dashes and the white space following them.
+     */
+    private static String formatEvent(final String json, final int start, final int end) {
+        StringBuilder event = new StringBuilder(PREFIX.length() + end - start + 1);
+        event.append(PREFIX);
+        int i = start;
+        while (i < end && Character.isDigit(json.charAt(i))) {
+            event.append(json.charAt(i++));
+        }
+        if (i > start) {
+            event.append(',');
+        }
+        while (i < end) {
+            if (json.startsWith(EN_DASH, i) && i + EN_DASH.length() <= end) {
+                i += EN_DASH.length();
+                while (i < end && Character.isWhitespace(json.charAt(i))) {
+                    i++;
+                }
+            } else {
+                event.append(json.charAt(i++));
+            }
+        }
+        return event.toString();
+    }
+}
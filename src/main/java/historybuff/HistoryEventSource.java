@@ -0,0 +1,31 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package historybuff;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Provides the historical events of a day of the year, most recent first.
+ */
+public interface HistoryEventSource {
+    /**
+     * Returns the events that happened on a day of the year.
+     *
+     * @param month
+     *            the month, 1-12
+     * @param day
+     *            the day of the month, 1-31
+     * @return the events, each starting with "In &lt;year&gt;,", most recent first
+     * @throws IOException
+     *             if the events cannot be obtained
+     */
+    List<String> getEvents(int month, int day) throws IOException;
+}
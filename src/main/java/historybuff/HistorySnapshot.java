@@ -0,0 +1,144 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package historybuff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An immutable set of events for the days of the year, stored as a gzip compressed file. The file
+ * holds a magic number, the format version, the snapshot version (the time it was built), and
+ * then for each of the 366 days the number of events followed by the events.
+ */
+public final class HistorySnapshot {
+    private static final int MAGIC = 0x48425346; // "HBSF"
+    private static final int FORMAT_VERSION = 1;
+
+    private final long version;
+    private final List<List<String>> days;
+
+    /**
+     * @param version
+     *            version of the snapshot, normally the time it was built
+     * @param days
+     *            the events of each day, indexed by {@link HistoryEventIndex#getDayIndex(int, int)};
+     *            a day without events is an empty list
+     */
+    public HistorySnapshot(final long version, final List<List<String>> days) {
+        if (days.size() != HistoryEventIndex.DAYS_PER_YEAR) {
+            throw new IllegalArgumentException("Expected " + HistoryEventIndex.DAYS_PER_YEAR
+                    + " days, got " + days.size());
+        }
+        List<List<String>> copy = new ArrayList<List<String>>(days.size());
+        for (List<String> events : days) {
+            copy.add(Collections.unmodifiableList(new ArrayList<String>(events)));
+        }
+        this.version = version;
+        this.days = Collections.unmodifiableList(copy);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the events of a day, or an empty list if the snapshot has none.
+     *
+     * @param month
+     *            the month, 1-12
+     * @param day
+     *            the day of the month
+     * @return the events of the day, most recent first
+     */
+    public List<String> getEvents(final int month, final int day) {
+        return days.get(HistoryEventIndex.getDayIndex(month, day));
+    }
+
+    /**
+     * Reads a snapshot file.
+     *
+     * @param file
+     *            the snapshot file
+     * @return the snapshot
+     * @throws IOException
+     *             if the file cannot be read or is not a snapshot
+     */
+    public static HistorySnapshot read(final File file) throws IOException {
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+                        new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a history snapshot");
+            }
+            int formatVersion = in.readInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot format " + formatVersion + " in "
+                        + file);
+            }
+            long version = in.readLong();
+            int dayCount = in.readInt();
+            if (dayCount != HistoryEventIndex.DAYS_PER_YEAR) {
+                throw new IOException("Unexpected number of days " + dayCount + " in " + file);
+            }
+            List<List<String>> days = new ArrayList<List<String>>(dayCount);
+            for (int i = 0; i < dayCount; i++) {
+                int eventCount = in.readInt();
+                List<String> events = new ArrayList<String>(eventCount);
+                for (int j = 0; j < eventCount; j++) {
+                    events.add(in.readUTF());
+                }
+                days.add(events);
+            }
+            return new HistorySnapshot(version, days);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a file. The snapshot is written next to the file and moved into
+     * place, so a server watching the file never reads a partial snapshot.
+     *
+     * @param file
+     *            the snapshot file
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void write(final File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+                        new FileOutputStream(tempFile))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(version);
+            out.writeInt(days.size());
+            for (List<String> events : days) {
+                out.writeInt(events.size());
+                for (String event : events) {
+                    out.writeUTF(event);
+                }
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package historybuff;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Batch job that downloads the events of all 366 days from Wikipedia, with a bounded number of
+ * requests in flight, and writes them as a single {@link HistorySnapshot}. Point a running
+ * HistoryBuff at the file with -Dhistorybuff.snapshot to serve events without calling Wikipedia.
+ * <p>
+ * Usage: {@code HistorySnapshotBuilder <snapshot file> [parallelism]}
+ * <p>
+ * The snapshot is only written if every day could be downloaded.
+ */
+public final class HistorySnapshotBuilder {
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private HistorySnapshotBuilder() {
+    }
+
+    /**
+     * Main entry point.
+     *
+     * @param args
+     *            snapshot file and optionally the number of concurrent downloads
+     * @throws Exception
+     *             if a day cannot be downloaded or the snapshot cannot be written
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: HistorySnapshotBuilder <snapshot file> [parallelism]");
+            System.exit(1);
+        }
+        File file = new File(args[0]);
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PARALLELISM;
+
+        long start = System.currentTimeMillis();
+        HistorySnapshot snapshot = build(new WikipediaEventSource(), parallelism, start);
+        snapshot.write(file);
+        System.out.println("Wrote history snapshot version " + snapshot.getVersion() + " to "
+                + file + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Loads every day of the year from a source.
+     *
+     * @param source
+     *            source to load the events from
+     * @param parallelism
+     *            number of days loaded concurrently
+     * @param version
+     *            version of the snapshot
+     * @return the snapshot
+     * @throws IOException
+     *             if a day cannot be loaded
+     * @throws InterruptedException
+     *             if interrupted while waiting for the downloads
+     */
+    static HistorySnapshot build(final HistoryEventSource source, final int parallelism,
+            final long version) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<Future<List<String>>>();
+            for (int i = 0; i < HistoryEventIndex.DAYS_PER_YEAR; i++) {
+                final int month = HistoryEventIndex.getMonth(i);
+                final int day = HistoryEventIndex.getDayOfMonth(i);
+                futures.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws IOException {
+                        return load(source, month, day);
+                    }
+                }));
+            }
+
+            List<List<String>> days = new ArrayList<List<String>>(futures.size());
+            for (Future<List<String>> future : futures) {
+                try {
+                    days.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IOException("Unable to build snapshot", e.getCause());
+                }
+            }
+            return new HistorySnapshot(version, days);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> load(final HistoryEventSource source, final int month,
+            final int day) throws IOException {
+        IOException failure = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                return source.getEvents(month, day);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        throw new IOException("Unable to load events for " + month + "/" + day, failure);
+    }
+}
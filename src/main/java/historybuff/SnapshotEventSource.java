@@ -0,0 +1,131 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package historybuff;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves events from a {@link HistorySnapshot} file built by {@link HistorySnapshotBuilder}. The
+ * file can be watched for changes: a newer snapshot is read in the background and swapped in
+ * atomically, so requests keep being served from the old snapshot until the new one is complete.
+ */
+public class SnapshotEventSource implements HistoryEventSource {
+    private static final Logger log = LoggerFactory.getLogger(SnapshotEventSource.class);
+
+    private final File file;
+    private final AtomicReference<HistorySnapshot> snapshot = new AtomicReference<HistorySnapshot>();
+    private volatile long lastModified;
+    private volatile long lastLength;
+    private ScheduledExecutorService watcher;
+
+    /**
+     * Reads the snapshot file, if it exists.
+     *
+     * @param file
+     *            the snapshot file
+     */
+    public SnapshotEventSource(final File file) {
+        this.file = file;
+        reload();
+    }
+
+    @Override
+    public List<String> getEvents(final int month, final int day) throws IOException {
+        HistorySnapshot current = snapshot.get();
+        if (current == null) {
+            throw new IOException("No history snapshot loaded from " + file);
+        }
+        List<String> events = current.getEvents(month, day);
+        if (events.isEmpty()) {
+            throw new IOException("History snapshot has no events for " + month + "/" + day);
+        }
+        return events;
+    }
+
+    /**
+     * Returns the version of the snapshot being served, or 0 if none is loaded.
+     */
+    public long getVersion() {
+        HistorySnapshot current = snapshot.get();
+        return current == null ? 0L : current.getVersion();
+    }
+
+    /**
+     * Starts a background thread that checks the snapshot file for changes.
+     *
+     * @param intervalMillis
+     *            time between checks
+     */
+    public synchronized void startWatching(final long intervalMillis) {
+        if (watcher != null) {
+            return;
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "history-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        watcher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reload();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops watching the snapshot file, if started.
+     */
+    public synchronized void stopWatching() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Reads the snapshot file if it changed, and swaps it in if it is newer than the current one.
+     */
+    private void reload() {
+        long modified = file.lastModified();
+        long length = file.length();
+        if (modified == 0L || modified == lastModified && length == lastLength) {
+            return;
+        }
+        try {
+            HistorySnapshot loaded = HistorySnapshot.read(file);
+            lastModified = modified;
+            lastLength = length;
+            HistorySnapshot current = snapshot.get();
+            if (current != null && loaded.getVersion() <= current.getVersion()) {
+                return;
+            }
+            if (snapshot.compareAndSet(current, loaded)) {
+                log.info("Serving history snapshot version {} from {}", loaded.getVersion(),
+                        file);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read history snapshot " + file, e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package historybuff;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import speechformat.SpeechDateFormatter;
+import webservice.WebServiceClient;
+
+/**
+ * Downloads the "Events" section of Wikipedia's article for a day of the year, e.g. April_7, and
+ * splits it into individual events.
+ */
+public class WikipediaEventSource implements HistoryEventSource {
+    private static final Logger log = LoggerFactory.getLogger(WikipediaEventSource.class);
+
+    /**
+     * URL prefix to download history content from Wikipedia.
+     */
+    private static final String URL_PREFIX =
+            "https://en.wikipedia.org/w/api.php?action=query&prop=extracts"
+                    + "&format=json&explaintext=&exsectionformat=plain&redirects=&titles=";
+
+    @Override
+    public List<String> getEvents(final int month, final int day) throws IOException {
+        String urlStr = URL_PREFIX + SpeechDateFormatter.getMonthName(month) + "_" + day;
+        log.info("Creating a URL {}", urlStr);
+        String text = WebServiceClient.getInstance().getString(urlStr, Charset.forName("US-ASCII"));
+        List<String> events = HistoryEventParser.parse(text);
+        if (events.isEmpty()) {
+            throw new IOException("No events found in " + urlStr);
+        }
+        return events;
+    }
+}
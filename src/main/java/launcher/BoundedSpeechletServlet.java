@@ -0,0 +1,193 @@
+package launcher;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazon.speech.speechlet.servlet.SpeechletServlet;
+
+/**
+ * {@link SpeechletServlet} that caps the number of requests it serves concurrently, so a single
+ * slow skill cannot take every worker thread of the shared pool. Requests over the limit are
+ * rejected with a 503 instead of being queued.
+ * <p>
+ * When created with an {@link Executor}, each request is put into async mode and handed to that
+ * executor, so the Jetty worker thread is returned to the pool while the speechlet blocks on its
+ * upstream web service call. A request that has not been answered within the async timeout is
+ * answered with a 503 by the container's timeout thread; the speechlet keeps running, but the
+ * request is completed only once, by whichever finishes first, and a request that timed out while
+ * still queued is not served at all.
+ */
+public class BoundedSpeechletServlet extends SpeechletServlet {
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LoggerFactory.getLogger(BoundedSpeechletServlet.class);
+
+    private final String skillPath;
+    private final Semaphore permits;
+    private final transient Executor executor;
+    private final long asyncTimeoutMillis;
+
+    /**
+     * @param skillPath
+     *            path the servlet is mounted at, for logging
+     * @param maxRequests
+     *            maximum concurrent requests, or 0 for no limit
+     */
+    public BoundedSpeechletServlet(final String skillPath, final int maxRequests) {
+        this(skillPath, maxRequests, null, 0L);
+    }
+
+    /**
+     * @param skillPath
+     *            path the servlet is mounted at, for logging
+     * @param maxRequests
+     *            maximum concurrent requests, or 0 for no limit
+     * @param executor
+     *            executor to run requests on in async mode, or null to serve them on the Jetty
+     *            worker thread
+     * @param asyncTimeoutMillis
+     *            time after which an async request that has not been answered is failed with a
+     *            503, ignored if the executor is null
+     */
+    public BoundedSpeechletServlet(final String skillPath, final int maxRequests,
+            final Executor executor, final long asyncTimeoutMillis) {
+        this.skillPath = skillPath;
+        this.permits = maxRequests > 0 ? new Semaphore(maxRequests) : null;
+        this.executor = executor;
+        this.asyncTimeoutMillis = asyncTimeoutMillis;
+    }
+
+    /**
+     * Returns true if requests are served asynchronously and the servlet must be registered with
+     * async support.
+     *
+     * @return true if requests are served asynchronously
+     */
+    public boolean isAsync() {
+        return executor != null;
+    }
+
+    @Override
+    protected void service(final HttpServletRequest request, final HttpServletResponse response)
+            throws ServletException, IOException {
+        if (permits != null && !permits.tryAcquire()) {
+            log.warn("Rejecting request for {}, concurrent request limit reached", skillPath);
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        if (executor == null) {
+            try {
+                super.service(request, response);
+            } finally {
+                releasePermit();
+            }
+            return;
+        }
+
+        final AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(asyncTimeoutMillis);
+        // set by whichever completes the request first: the executor, or the timeout or error
+        // listener on a container thread
+        final AtomicBoolean completed = new AtomicBoolean();
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(final AsyncEvent event) throws IOException {
+                log.warn("Request for {} not answered within {} ms", skillPath,
+                        asyncTimeoutMillis);
+                fail(asyncContext, completed, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            }
+
+            @Override
+            public void onError(final AsyncEvent event) throws IOException {
+                log.warn("Async request for " + skillPath + " failed", event.getThrowable());
+                fail(asyncContext, completed, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+
+            @Override
+            public void onComplete(final AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(final AsyncEvent event) {
+            }
+        });
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!completed.get()) {
+                            serviceAsync(asyncContext);
+                        }
+                    } finally {
+                        releasePermit();
+                        if (completed.compareAndSet(false, true)) {
+                            asyncContext.complete();
+                        } else {
+                            log.warn("Discarding late answer of request for {}", skillPath);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Rejecting request for {}, async executor is saturated", skillPath);
+            releasePermit();
+            fail(asyncContext, completed, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Sends an error status and completes an async request, unless it has been completed already.
+     */
+    private void fail(final AsyncContext asyncContext, final AtomicBoolean completed,
+            final int status) throws IOException {
+        if (!completed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            if (!response.isCommitted()) {
+                response.sendError(status);
+            }
+        } finally {
+            asyncContext.complete();
+        }
+    }
+
+    private void serviceAsync(final AsyncContext asyncContext) {
+        HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
+        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+        try {
+            super.service(request, response);
+        } catch (Exception e) {
+            log.error("Failed to serve async request for " + skillPath, e);
+            try {
+                if (!response.isCommitted()) {
+                    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                }
+            } catch (IOException ioe) {
+                log.debug("Unable to send error response for {}", skillPath);
+            }
+        }
+    }
+
+    private void releasePermit() {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package launcher;
+
+/**
+ * Server tuning settings for the launcher, read from system properties so they can be set from
+ * the exec-maven-plugin configuration or the java command line.
+ * <ul>
+ * <li>{@code launcher.minThreads} - minimum number of Jetty worker threads (default 8)</li>
+ * <li>{@code launcher.maxThreads} - maximum number of Jetty worker threads (default 64)</li>
+ * <li>{@code launcher.maxQueuedRequests} - bound of the worker pool job queue (default 256)</li>
+ * <li>{@code launcher.idleTimeoutMillis} - idle timeout for worker threads (default 60000)</li>
+ * <li>{@code launcher.maxRequestsPerSkill} - concurrent requests allowed per skill path, 0 for no
+ * limit (default 32)</li>
+ * <li>{@code launcher.maxRequests.<skill>} - overrides the per skill limit for a single skill,
+ * e.g. {@code launcher.maxRequests.tidepooler}</li>
+ * <li>{@code launcher.executionMode} - {@code pooled} to serve requests on the Jetty worker
+ * thread, or {@code async} to hand each request off to a separate executor so blocking web
+ * service calls do not hold Jetty workers (default pooled)</li>
+ * <li>{@code launcher.async.maxThreads} - threads of the async executor (default 256)</li>
+ * <li>{@code launcher.async.maxQueuedRequests} - bound of the async executor queue (default
+ * 1024)</li>
+ * <li>{@code launcher.async.timeoutMillis} - time after which an async request that has not been
+ * answered is failed with a 503 (default 10000)</li>
+ * </ul>
+ */
+public final class LauncherSettings {
+    private static final String PREFIX = "launcher.";
+
+    private static final int DEFAULT_MIN_THREADS = 8;
+    private static final int DEFAULT_MAX_THREADS = 64;
+    private static final int DEFAULT_MAX_QUEUED_REQUESTS = 256;
+    private static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+    private static final int DEFAULT_MAX_REQUESTS_PER_SKILL = 32;
+    private static final int DEFAULT_ASYNC_MAX_THREADS = 256;
+    private static final int DEFAULT_ASYNC_MAX_QUEUED_REQUESTS = 1024;
+    private static final long DEFAULT_ASYNC_TIMEOUT_MILLIS = 10000L;
+
+    /**
+     * How requests are executed once they are accepted by Jetty.
+     */
+    public enum ExecutionMode {
+        /**
+         * Serve the request on the Jetty worker thread that accepted it.
+         */
+        POOLED,
+        /**
+         * Put the request into async mode and serve it on the async executor.
+         */
+        ASYNC
+    }
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final int maxQueuedRequests;
+    private final int idleTimeoutMillis;
+    private final int maxRequestsPerSkill;
+    private final ExecutionMode executionMode;
+    private final int asyncMaxThreads;
+    private final int asyncMaxQueuedRequests;
+    private final long asyncTimeoutMillis;
+
+    private LauncherSettings() {
+        minThreads = Integer.getInteger(PREFIX + "minThreads", DEFAULT_MIN_THREADS);
+        maxThreads = Integer.getInteger(PREFIX + "maxThreads", DEFAULT_MAX_THREADS);
+        maxQueuedRequests =
+                Integer.getInteger(PREFIX + "maxQueuedRequests", DEFAULT_MAX_QUEUED_REQUESTS);
+        idleTimeoutMillis =
+                Integer.getInteger(PREFIX + "idleTimeoutMillis", DEFAULT_IDLE_TIMEOUT_MILLIS);
+        maxRequestsPerSkill =
+                Integer.getInteger(PREFIX + "maxRequestsPerSkill", DEFAULT_MAX_REQUESTS_PER_SKILL);
+        executionMode =
+                ExecutionMode.valueOf(System.getProperty(PREFIX + "executionMode",
+                        ExecutionMode.POOLED.name()).toUpperCase());
+        asyncMaxThreads =
+                Integer.getInteger(PREFIX + "async.maxThreads", DEFAULT_ASYNC_MAX_THREADS);
+        asyncMaxQueuedRequests =
+                Integer.getInteger(PREFIX + "async.maxQueuedRequests",
+                        DEFAULT_ASYNC_MAX_QUEUED_REQUESTS);
+        asyncTimeoutMillis =
+                Long.getLong(PREFIX + "async.timeoutMillis", DEFAULT_ASYNC_TIMEOUT_MILLIS);
+
+        if (minThreads < 1 || maxThreads < minThreads) {
+            throw new IllegalArgumentException("Invalid thread pool size, min=" + minThreads
+                    + ", max=" + maxThreads);
+        }
+        if (maxQueuedRequests < 1) {
+            throw new IllegalArgumentException("Invalid queue bound " + maxQueuedRequests);
+        }
+        if (asyncMaxThreads < 1 || asyncMaxQueuedRequests < 1) {
+            throw new IllegalArgumentException("Invalid async executor size, threads="
+                    + asyncMaxThreads + ", queue=" + asyncMaxQueuedRequests);
+        }
+        if (asyncTimeoutMillis < 1) {
+            throw new IllegalArgumentException("Invalid async timeout " + asyncTimeoutMillis);
+        }
+    }
+
+    /**
+     * Reads the settings from the current system properties.
+     *
+     * @return the launcher settings
+     */
+    public static LauncherSettings fromSystemProperties() {
+        return new LauncherSettings();
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public int getAsyncMaxThreads() {
+        return asyncMaxThreads;
+    }
+
+    public int getAsyncMaxQueuedRequests() {
+        return asyncMaxQueuedRequests;
+    }
+
+    public long getAsyncTimeoutMillis() {
+        return asyncTimeoutMillis;
+    }
+
+    /**
+     * Returns the number of concurrent requests allowed for a skill, or 0 if unlimited.
+     *
+     * @param skillName
+     *            name of the skill, i.e. its path without the leading slash
+     * @return the concurrent request limit for the skill
+     */
+    public int getMaxRequests(final String skillName) {
+        return Integer.getInteger(PREFIX + "maxRequests." + skillName, maxRequestsPerSkill);
+    }
+}
@@ -0,0 +1,76 @@
+package launcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazon.speech.speechlet.Speechlet;
+
+/**
+ * Ordered mapping of servlet paths to the {@link Speechlet} that serves each path. The launcher
+ * mounts every registered skill in a single servlet container.
+ */
+public final class SkillRegistry {
+    private final Map<String, Skill> skills = new LinkedHashMap<String, Skill>();
+
+    /**
+     * Registers a speechlet under the given servlet path, e.g. "/tidepooler".
+     *
+     * @param path
+     *            servlet path the skill is mounted at
+     * @param speechlet
+     *            speechlet serving the path
+     * @return this registry, for chaining
+     */
+    public SkillRegistry register(final String path, final Speechlet speechlet) {
+        if (path == null || !path.startsWith("/")) {
+            throw new IllegalArgumentException("Skill path must start with '/': " + path);
+        }
+        if (skills.containsKey(path)) {
+            throw new IllegalArgumentException("Skill path already registered: " + path);
+        }
+        skills.put(path, new Skill(path, speechlet));
+        return this;
+    }
+
+    /**
+     * Returns the registered skills in registration order.
+     *
+     * @return the registered skills
+     */
+    public List<Skill> getSkills() {
+        return Collections.unmodifiableList(new ArrayList<Skill>(skills.values()));
+    }
+
+    /**
+     * A speechlet and the path it is mounted at.
+     */
+    public static final class Skill {
+        private final String path;
+        private final Speechlet speechlet;
+
+        private Skill(final String path, final Speechlet speechlet) {
+            this.path = path;
+            this.speechlet = speechlet;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the path without its leading slash, used as the key for per-skill settings.
+         *
+         * @return the skill name
+         */
+        public String getName() {
+            return path.substring(1);
+        }
+
+        public Speechlet getSpeechlet() {
+            return speechlet;
+        }
+    }
+}
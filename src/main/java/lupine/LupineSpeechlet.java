@@ -8,21 +8,21 @@
  */
 package lupine;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URLEncoder;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 
-import org.apache.commons.io.IOUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import webservice.WebServiceClient;
+
 import com.amazon.speech.slu.Intent;
 import com.amazon.speech.slu.Slot;
 import com.amazon.speech.speechlet.IntentRequest;
@@ -85,6 +85,27 @@ public class LupineSpeechlet implements Speechlet {
     private static final Logger log = LoggerFactory.getLogger(
     LupineSpeechlet.class);
 
+    private static final long DEFAULT_CATALOG_REVALIDATE_SECONDS = 60;
+    private static final long DEFAULT_PIPELINE_DEPTH = 4;
+
+    // media names are served from here instead of asking the web services
+    // on every list or play command
+    private final MediaCatalog catalog = new MediaCatalog(
+    MPLAYER_WS_PREFIX, BROWSER_WS_PREFIX,
+    getEnvLong("CATALOG_REVALIDATE_SECONDS",
+    DEFAULT_CATALOG_REVALIDATE_SECONDS) * 1000L);
+
+    // what the media box is doing, as far as the commands sent to it tell.
+    // It outlives sessions, so status questions are answered from memory.
+    private final PlaybackState playback = new PlaybackState();
+
+    // transport commands are acknowledged without waiting for the media box,
+    // except on Lambda, which freezes the process once the response is sent.
+    // They are pipelined over one persistent connection per service.
+    private final MediaCommandQueue commands = new MediaCommandQueue(
+    isAsyncCommands(),
+    (int)getEnvLong("PIPELINE_DEPTH",DEFAULT_PIPELINE_DEPTH),playback);
+
     private final String INTENT_REFRESH_MOVIES= "RefreshMoviesIntent";
     private final String INTENT_LIST_MOVIES= "ListMoviesIntent";
     private final String INTENT_LIST_CHANNELS= "ListChannelsIntent";
@@ -96,6 +117,7 @@ public class LupineSpeechlet implements Speechlet {
     private final String INTENT_OPEN_BOOKMARK = "OpenBookmarkIntent";
     private final String INTENT_SEEK_SECONDS = "SeekSecondsIntent";
     private final String INTENT_VOLUME = "VolumeIntent";
+    private final String INTENT_WHATS_PLAYING = "WhatsPlayingIntent";
     private final String INTENT_STOP = "AMAZON.StopIntent";
     private final String INTENT_HELP = "AMAZON.HelpIntent";
     private final String MEDIA_TYPE_CHANNELS = "channels";
@@ -184,6 +206,8 @@ public class LupineSpeechlet implements Speechlet {
             return handleSeekSeconds(intent,session);
         }else if (INTENT_VOLUME.equals(intentName)) {
             return handleVolume(intent,session);
+        }else if (INTENT_WHATS_PLAYING.equals(intentName)) {
+            return handleWhatsPlaying(intent,session);
         }else if (INTENT_REFRESH_MOVIES.equals(intentName)) {
             return handleRefreshMovies(intent,session);
         } else if (INTENT_HELP.equals(intentName)) {
@@ -205,21 +229,7 @@ public class LupineSpeechlet implements Speechlet {
             String speechPrefixContent = "<p>"+cardPrefixContent+"</p> ";
             String cardTitle = "Media names";
             String speechOutput = null;
-            URL url = null;
-            switch(mediaType){
-                case MOVIE:
-                    url = new URL(MPLAYER_WS_PREFIX + "list?type=movies");
-                    break;
-                case CHANNEL:
-                    url = new URL(MPLAYER_WS_PREFIX + "list?type=channels");
-                    break;
-                case BOOKMARK:
-                    url = new URL(BROWSER_WS_PREFIX + "list?type=bookmarks");
-                    break;
-            }
-            log.debug("Got url string of {}",url);
-            String jsonText = getJsonString(url);
-            List<String> mediaNames = getJsonMediaNames(jsonText,mediaType);
+            List<String> mediaNames = catalog.getNames(mediaType);
             StringBuilder speechOutputBuilder = new StringBuilder();
             speechOutputBuilder.append(speechPrefixContent);
             StringBuilder cardOutputBuilder = new StringBuilder();
@@ -380,14 +390,38 @@ public class LupineSpeechlet implements Speechlet {
         try{
             String mediaTypeStr = null;
             String mediaName = null;
+            String title = null;
             if (mediaType==MediaType.MOVIE){
                 mediaTypeStr = MEDIA_TYPE_MOVIES;
                 Slot slot = intent.getSlot(SLOT_MOVIE);
-                mediaName = URLEncoder.encode(slot.getValue(),"UTF-8");
+                List<String> movieNames = resolveMediaName(mediaType,slot.getValue());
+                if(movieNames.size()>1){
+                    return newWhichOneResponse(movieNames,
+                    "Say play, and the name with the season or episode.");
+                }
+                String movieName = movieNames.isEmpty()?null:movieNames.get(0);
+                if(movieName==null){
+                    String speechOutput = (slot.getValue()==null?
+                    "You did not say a movie.":
+                    "I could not find the movie "+slot.getValue()+".")+
+                    " Say list movies to hear what is available.";
+                    return newTellResponse("<speak>" + speechOutput + "</speak>",
+                    true,false);
+                }
+                title = movieName;
+                mediaName = URLEncoder.encode(movieName,"UTF-8");
             }else if (mediaType==MediaType.CHANNEL){
                 mediaTypeStr = MEDIA_TYPE_CHANNELS;
                 Slot slot = intent.getSlot(SLOT_CHANNEL);
-                mediaName = slot.getValue();
+                // channels may also be asked for by number, so names that
+                // are not listed are still passed on to mplayer
+                List<String> channelNames = resolveMediaName(mediaType,slot.getValue());
+                if(channelNames.size()>1){
+                    return newWhichOneResponse(channelNames,
+                    "Which channel would you like?");
+                }
+                mediaName = channelNames.isEmpty()?slot.getValue():channelNames.get(0);
+                title = mediaName;
             }
             String cardTitle = "Playing media type "+mediaTypeStr;
             String speechPrefixContent = "";
@@ -395,9 +429,11 @@ public class LupineSpeechlet implements Speechlet {
             String speechOutput = null;
             log.debug("Playing media {}",mediaName);
             session.setAttribute(SESSION_SELECTED_MOVIE, mediaName);
-            URL url = new URL(MPLAYER_WS_PREFIX + "play?type="+
+            // the mirror is updated first, so that a failure of the
+            // command, reported while or after it is sent, is kept
+            playback.played(mediaType,title);
+            commands.play(MPLAYER_WS_PREFIX + "play?type="+
             mediaTypeStr+"&file="+mediaName);
-            String jsonText = getJsonString(url);
             speechOutput = "Playing "+mediaName;
             return newTellResponse("<speak>" + speechOutput + "</speak>",
             true,false);
@@ -433,6 +469,10 @@ public class LupineSpeechlet implements Speechlet {
             boolean recordingStatus = 
             Boolean.parseBoolean(responseObj.getString("recording"));
             String mediaName = responseObj.getString("filename");
+            if(recordingStatus){
+                playback.recordingStarted(channelNumberStr,mediaName,
+                Long.parseLong(minutesStr));
+            }
 
             String okSpeechOutput = "Recording file for "+
             minutesStr+" minutes.";
@@ -460,13 +500,16 @@ public class LupineSpeechlet implements Speechlet {
             Slot seekSecondsSlot = intent.getSlot(SLOT_SEEK_SECONDS);
             String seekSecondsName = seekSecondsSlot.getValue();
             int seekSeconds = Integer.parseInt(seekSecondsName) ;
-            String mediaName = (String)session.getAttribute(
-            SESSION_SELECTED_MOVIE);
+            String mediaName = playback.getSnapshot().getTitle();
+            if(mediaName==null){
+                mediaName = (String)session.getAttribute(
+                SESSION_SELECTED_MOVIE);
+            }
             if(seekSeconds!=0){
                 log.debug("Seeking {} seconds",seekSeconds);
-                URL url = new URL(MPLAYER_WS_PREFIX + 
-                "/seek?seconds="+URLEncoder.encode(seekSecondsName,"UTF-8"));
-                String jsonText = getJsonString(url);
+                playback.sought(seekSeconds);
+                commands.seek(MPLAYER_WS_PREFIX + "/seek?seconds=",
+                seekSeconds);
                 speechOutput = "Seeking "+seekSecondsName+" seconds."; 
                 return newTellResponse("<speak>" + speechOutput + "</speak>",
                 true,false);
@@ -495,12 +538,9 @@ public class LupineSpeechlet implements Speechlet {
             Slot volumeSlot = intent.getSlot(SLOT_VOLUME);
             String volumeStr = volumeSlot.getValue();
             int volume = Integer.parseInt(volumeStr);
-            String mediaName = (String)session.getAttribute(
-            SESSION_SELECTED_MOVIE);
             log.debug("Setting volume as {}.",volumeStr);
-            URL url = new URL(MPLAYER_WS_PREFIX + 
-            "/volume?volume="+URLEncoder.encode(volumeStr,"UTF-8"));
-            String jsonText = getJsonString(url);
+            playback.volumeSet(volume);
+            commands.volume(MPLAYER_WS_PREFIX + "/volume?volume=",volume);
             speechOutput = "Setting volume to "+volumeStr; 
             return newTellResponse(
             "<speak>" + speechOutput + "</speak>", true,false);
@@ -512,6 +552,49 @@ public class LupineSpeechlet implements Speechlet {
         }
     }
 
+    /**
+     * Tells what is playing, the position, volume and any recording, from
+     * the playback state kept by this skill rather than from the media box.
+     */
+    private SpeechletResponse handleWhatsPlaying(Intent intent,
+    Session session){
+        PlaybackState.Snapshot state = playback.getSnapshot();
+        StringBuilder speechOutput = new StringBuilder();
+        if(state.getTitle()==null){
+            speechOutput.append("Nothing is playing.");
+        }else if(state.getMediaType()==MediaType.CHANNEL){
+            speechOutput.append("Channel ").append(state.getTitle())
+            .append(" is playing.");
+        }else{
+            long position = state.getPositionSeconds();
+            speechOutput.append("Playing ").append(state.getTitle());
+            if(position<60){
+                speechOutput.append(", which just started.");
+            }else{
+                speechOutput.append(", about ");
+                if(position>=3600){
+                    speechOutput.append(position/3600).append(" hours and ");
+                }
+                speechOutput.append(position%3600/60).append(" minutes in.");
+            }
+        }
+        if(state.getVolume()!=null){
+            speechOutput.append(" The volume is ").append(state.getVolume())
+            .append(".");
+        }
+        if(state.getRecordingChannel()!=null){
+            speechOutput.append(" Recording channel ")
+            .append(state.getRecordingChannel()).append(" for another ")
+            .append(state.getRecordingMinutesLeft()).append(" minutes.");
+        }
+        if(state.isUncertain()){
+            speechOutput.append(" The media box did not confirm the last "+
+            "command, so this may be out of date.");
+        }
+        return newTellResponse("<speak>" + speechOutput + "</speak>",
+        true,false);
+    }
+
     private SpeechletResponse handleRefreshMovies(Intent intent, 
     Session session){
         try{
@@ -523,6 +606,7 @@ public class LupineSpeechlet implements Speechlet {
             log.debug("Refreshing movie list");
             URL url = new URL(MPLAYER_WS_PREFIX + "reload");
             String jsonText = getJsonString(url);
+            catalog.refresh();
             speechOutput = "Refreshing movie and channel list";
             return newTellResponse("<speak>" + speechOutput + 
             "</speak>",true,false);
@@ -538,9 +622,9 @@ public class LupineSpeechlet implements Speechlet {
 
     private SpeechletResponse handleStopIntent(Intent intent, Session session){
         try{
-            URL url = new URL(MPLAYER_WS_PREFIX + "stop");
+            playback.stopped();
+            commands.stop(MPLAYER_WS_PREFIX + "stop");
             log.debug("Asked mplayer to stop");
-            String jsonText = getJsonString(url);
             return newTellResponse("Goodbye",false,true);
         }catch(Exception ex){
             log.error("Failed to seek episode ",ex);
@@ -558,12 +642,23 @@ public class LupineSpeechlet implements Speechlet {
             String speechOutput = null;
 
             Slot bookmarkSlot = intent.getSlot(SLOT_BOOKMARK);
-            String bookmarkName = bookmarkSlot.getValue();
+            List<String> bookmarkNames = resolveMediaName(MediaType.BOOKMARK,
+            bookmarkSlot.getValue());
+            if(bookmarkNames.size()>1){
+                return newWhichOneResponse(bookmarkNames,
+                "Which bookmark would you like?");
+            }
+            String bookmarkName = bookmarkNames.isEmpty()?null:bookmarkNames.get(0);
+            if(bookmarkName==null && bookmarkSlot.getValue()!=null){
+                speechOutput = "I could not find the bookmark "+
+                bookmarkSlot.getValue();
+                return newTellResponse("<speak>" + speechOutput + "</speak>",
+                true,false);
+            }
             if(bookmarkName!=null){
                 log.debug("Opening bookmark {}",bookmarkName);
-                URL url = new URL(BROWSER_WS_PREFIX + 
+                commands.send(BROWSER_WS_PREFIX + 
                 "/open?bookmark="+URLEncoder.encode(bookmarkName,"UTF-8"));
-                String jsonText = getJsonString(url);
                 speechOutput = "Opened site "+bookmarkName;
                 return newTellResponse("<speak>" + speechOutput + "</speak>",
                 true,false);
@@ -581,28 +676,13 @@ public class LupineSpeechlet implements Speechlet {
     }
 
     private String getJsonString(URL url){
-        InputStreamReader inputStream = null;
-        BufferedReader bufferedReader = null;
         String text = null;
         try {
-            String line;
-            //String urlStr = MPLAYER_WS_PREFIX + "list";
-            //log.info("Creating a URL {}",urlStr);
-            //URL url = new URL(urlStr);
-            inputStream = new InputStreamReader(url.openStream(), 
+            text = WebServiceClient.getInstance().getString(url.toString(),
             Charset.forName("UTF-8"));
-            bufferedReader = new BufferedReader(inputStream);
-            StringBuilder builder = new StringBuilder();
-            while ((line = bufferedReader.readLine()) != null) {
-                builder.append(line);
-            }
-            text = builder.toString();
         } catch (IOException e) {
             // reset text variable to a blank string
             text = "";
-        } finally {
-            IOUtils.closeQuietly(inputStream);
-            IOUtils.closeQuietly(bufferedReader);
         }
         return text;
     }
@@ -625,29 +705,60 @@ public class LupineSpeechlet implements Speechlet {
         return null;
     }
 
-    private List<String> getJsonMediaNames(String jsonText,
-    MediaType mediaType)
-    throws Exception{
-        if(jsonText==null) return null;
-        JSONObject jsonObject = new JSONObject(jsonText);
-        JSONObject responseObject = jsonObject.getJSONObject("response");
-        JSONArray mediaArray = null;
-        switch(mediaType){
-            case MOVIE:
-                mediaArray = responseObject.getJSONArray("movies");
-                break;
-            case BOOKMARK:
-                mediaArray = responseObject.getJSONArray("bookmarks");
-                break;
-            case CHANNEL:
-                mediaArray = responseObject.getJSONArray("channels");
-                break;
+    /**
+     * Looks up a spoken media name in the catalog. If the catalog cannot be
+     * fetched the spoken name is used as is, and the web service decides.
+     *
+     * @return the names as listed, several if the spoken name does not tell
+     *         them apart, or none if there is no such media
+     */
+    private List<String> resolveMediaName(MediaType mediaType, String spokenName){
+        try{
+            return catalog.resolve(mediaType,spokenName);
+        }catch(IOException ex){
+            log.warn("Unable to check "+spokenName+" against the catalog",ex);
+            return spokenName==null?Collections.<String>emptyList():
+            Collections.singletonList(spokenName);
+        }
+    }
+
+    /**
+     * Asks which of several listed names was meant, e.g. the seasons of a
+     * series when no season was said.
+     */
+    private SpeechletResponse newWhichOneResponse(List<String> names,
+    String repromptText){
+        StringBuilder speechOutput = new StringBuilder("Did you mean ");
+        for(int i=0;i<names.size();i++){
+            if(i>0){
+                speechOutput.append(i==names.size()-1?", or ":", ");
+            }
+            speechOutput.append(names.get(i));
+        }
+        speechOutput.append("? ").append(repromptText);
+        return newAskResponse("<speak>" + speechOutput + "</speak>",
+        true,repromptText,false);
+    }
+
+    private static boolean isAsyncCommands(){
+        String async = System.getenv("ASYNC_COMMANDS");
+        if(async!=null){
+            return Boolean.parseBoolean(async);
+        }
+        return System.getenv("AWS_LAMBDA_FUNCTION_NAME")==null;
+    }
+
+    private static long getEnvLong(String name, long defaultValue){
+        String value = System.getenv(name);
+        if(value==null){
+            return defaultValue;
         }
-        List<String> media = new ArrayList<String>();
-        for(int i=0;i<mediaArray.length();++i){
-            media.add(mediaArray.getString(i));
+        try{
+            return Long.parseLong(value);
+        }catch(NumberFormatException ex){
+            log.warn("Invalid {} {}",name,value);
+            return defaultValue;
         }
-        return media;
     }
 
     /**
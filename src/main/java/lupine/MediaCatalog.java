@@ -0,0 +1,247 @@
+package lupine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lupine.LupineSpeechlet.MediaType;
+import webservice.WebServiceClient;
+
+/**
+ * Local copy of the movies, channels and bookmarks offered by the Lupine web services, so that
+ * listing media does not wait for the services and play commands can be checked against the
+ * names that exist.
+ * <p>
+ * A list is fetched when it is first needed. After that it is served from memory, and once it is
+ * older than the revalidation interval it is checked again in the background with a conditional
+ * request: a service that sends an ETag only sends the list again when it has changed. All lists
+ * are fetched again after {@link #refresh()}, which is called when the media is reloaded.
+ */
+final class MediaCatalog {
+    private static final Logger log = LoggerFactory.getLogger(MediaCatalog.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mplayerPrefix;
+    private final String browserPrefix;
+    private final long revalidateMillis;
+    private final ConcurrentMap<MediaType, Entry> entries =
+            new ConcurrentHashMap<MediaType, Entry>();
+    private final ConcurrentMap<MediaType, Boolean> fetching =
+            new ConcurrentHashMap<MediaType, Boolean>();
+    private final ExecutorService fetcher;
+
+    /**
+     * @param mplayerPrefix
+     *            URL prefix of the mplayer web service, which lists movies and channels
+     * @param browserPrefix
+     *            URL prefix of the browser web service, which lists bookmarks
+     * @param revalidateMillis
+     *            age after which a list is checked for changes
+     */
+    MediaCatalog(final String mplayerPrefix, final String browserPrefix,
+            final long revalidateMillis) {
+        this.mplayerPrefix = mplayerPrefix;
+        this.browserPrefix = browserPrefix;
+        this.revalidateMillis = revalidateMillis;
+        this.fetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "lupine-catalog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the names of the media of a type. Only the first call for a type waits for the web
+     * service.
+     *
+     * @param mediaType
+     *            the type of media
+     * @return the names, in the order of the web service
+     * @throws IOException
+     *             if the list has never been fetched and cannot be fetched now
+     */
+    List<String> getNames(final MediaType mediaType) throws IOException {
+        return getEntry(mediaType).names;
+    }
+
+    /**
+     * Finds the listed names closest to a spoken media name, see {@link MediaNameIndex}.
+     *
+     * @param mediaType
+     *            the type of media
+     * @param spokenName
+     *            the name as recognized
+     * @return the names as listed by the web service: one if the spoken name is unambiguous,
+     *         several if the spoken name does not tell them apart, e.g. seasons of a series, and
+     *         none if no name is similar enough
+     * @throws IOException
+     *             if the list has never been fetched and cannot be fetched now
+     */
+    List<String> resolve(final MediaType mediaType, final String spokenName) throws IOException {
+        if (spokenName == null) {
+            return Collections.emptyList();
+        }
+        return getEntry(mediaType).index.find(spokenName);
+    }
+
+    /**
+     * Fetches all lists again in the background, regardless of their age and ETag. Until a list
+     * has been fetched the previous one is served.
+     */
+    void refresh() {
+        for (MediaType mediaType : MediaType.values()) {
+            scheduleFetch(mediaType, true);
+        }
+    }
+
+    private Entry getEntry(final MediaType mediaType) throws IOException {
+        Entry entry = entries.get(mediaType);
+        if (entry == null) {
+            return fetch(mediaType, null);
+        }
+        if (System.currentTimeMillis() - entry.checkedAt >= revalidateMillis) {
+            scheduleFetch(mediaType, false);
+        }
+        return entry;
+    }
+
+    private void scheduleFetch(final MediaType mediaType, final boolean force) {
+        // one revalidation per type at a time is enough, the others would get the same list
+        if (fetching.putIfAbsent(mediaType, Boolean.TRUE) != null && !force) {
+            return;
+        }
+        fetcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Entry entry = entries.get(mediaType);
+                    fetch(mediaType, force || entry == null ? null : entry);
+                } catch (Exception e) {
+                    log.warn("Unable to fetch list of " + mediaType, e);
+                } finally {
+                    fetching.remove(mediaType);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetches a list and stores it.
+     *
+     * @param previous
+     *            the stored list, which is kept if the service reports that its ETag is
+     *            unchanged, or null to fetch the list unconditionally
+     */
+    private Entry fetch(final MediaType mediaType, final Entry previous) throws IOException {
+        Entry entry =
+                WebServiceClient.getInstance().getIfChanged(getListUrl(mediaType),
+                        previous == null ? null : previous.etag,
+                        new WebServiceClient.VersionedBodyHandler<Entry>() {
+                            @Override
+                            public Entry handle(InputStream body, String etag)
+                                    throws IOException {
+                                return new Entry(getJsonMediaNames(IOUtils.toString(body,
+                                        UTF_8), mediaType), etag);
+                            }
+                        });
+        if (entry == null) {
+            entry = previous.revalidated();
+        } else {
+            log.info("Fetched {} {} names", entry.names.size(), mediaType);
+        }
+        entries.put(mediaType, entry);
+        return entry;
+    }
+
+    private String getListUrl(final MediaType mediaType) {
+        switch (mediaType) {
+            case MOVIE:
+                return mplayerPrefix + "list?type=movies";
+            case CHANNEL:
+                return mplayerPrefix + "list?type=channels";
+            case BOOKMARK:
+                return browserPrefix + "list?type=bookmarks";
+            default:
+                throw new IllegalArgumentException("Unknown media type " + mediaType);
+        }
+    }
+
+    /**
+     * Reads the media names from a list response of a web service.
+     *
+     * @throws IOException
+     *             if the response is not a list of the media type
+     */
+    static List<String> getJsonMediaNames(final String jsonText, final MediaType mediaType)
+            throws IOException {
+        try {
+            JSONObject responseObject = new JSONObject(jsonText).getJSONObject("response");
+            JSONArray mediaArray = null;
+            switch (mediaType) {
+                case MOVIE:
+                    mediaArray = responseObject.getJSONArray("movies");
+                    break;
+                case BOOKMARK:
+                    mediaArray = responseObject.getJSONArray("bookmarks");
+                    break;
+                case CHANNEL:
+                    mediaArray = responseObject.getJSONArray("channels");
+                    break;
+            }
+            List<String> media = new ArrayList<String>(mediaArray.length());
+            for (int i = 0; i < mediaArray.length(); ++i) {
+                media.add(mediaArray.getString(i));
+            }
+            return media;
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid list of " + mediaType, e);
+        }
+    }
+
+    /**
+     * A fetched list, with its index for finding spoken names.
+     */
+    private static final class Entry {
+        private final List<String> names;
+        private final MediaNameIndex index;
+        private final String etag;
+        private final long checkedAt = System.currentTimeMillis();
+
+        private Entry(final List<String> names, final String etag) {
+            this.names = Collections.unmodifiableList(names);
+            this.index = MediaNameIndex.of(names);
+            this.etag = etag;
+        }
+
+        private Entry(final Entry entry) {
+            this.names = entry.names;
+            this.index = entry.index;
+            this.etag = entry.etag;
+        }
+
+        /**
+         * Returns this list, checked for changes now.
+         */
+        private Entry revalidated() {
+            return new Entry(this);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package lupine;
+
+import java.net.MalformedURLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lupine.MediaControlChannel.PipelineException;
+import lupine.MediaControlChannel.Response;
+
+/**
+ * Sends transport commands, such as play, seek and volume, to the Lupine web services.
+ * <p>
+ * In asynchronous mode a command is queued and the speech response is returned without waiting
+ * for the media box. Commands are sent in order by a background thread, and a failed command is
+ * retried a few times before it is dropped. Commands still waiting to be sent are coalesced: a
+ * seek is added to a pending seek, a volume replaces a pending volume, and a play or stop
+ * discards pending seeks, which would apply to the previous media. So a burst of "skip 10 seconds"
+ * sends a single net seek.
+ * <p>
+ * In synchronous mode a command is sent, with the same retries, before the call returns. This is
+ * needed where the process may be frozen as soon as the response is returned, as on AWS Lambda.
+ * <p>
+ * Commands are sent over a persistent {@link MediaControlChannel} per web service. The background
+ * thread takes all waiting commands at once and pipelines those for the same service, so a burst
+ * of commands is one round trip. A command the service answered is never sent again, whatever the
+ * answer. Nor is a command that may have reached the service unanswered, e.g. because the answer
+ * timed out, unless it is a volume, which sets an absolute level: running a seek, play or stop
+ * twice is worse than reporting it as failed.
+ * <p>
+ * A command that the service rejects, or that cannot be sent, is reported to the
+ * {@link PlaybackState}, whose mirror may then no longer match the media box.
+ */
+final class MediaCommandQueue {
+    private static final Logger log = LoggerFactory.getLogger(MediaCommandQueue.class);
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 250L;
+
+    enum Kind {
+        PLAY(false), STOP(false), SEEK(false), VOLUME(true), OTHER(false);
+
+        // true if running the command twice has the same effect as running it once
+        private final boolean repeatable;
+
+        private Kind(final boolean repeatable) {
+            this.repeatable = repeatable;
+        }
+    }
+
+    private final boolean async;
+    private final int pipelineDepth;
+    private final int readTimeoutMillis;
+    private final PlaybackState playback;
+    private final ConcurrentMap<String, MediaControlChannel> channels =
+            new ConcurrentHashMap<String, MediaControlChannel>();
+
+    // guarded by itself
+    private final Deque<Command> pending = new ArrayDeque<Command>();
+
+    /**
+     * @param async
+     *            true to send commands in the background, false to send them before returning
+     * @param pipelineDepth
+     *            maximum number of commands sent to a service before their responses are read
+     * @param playback
+     *            the playback state to report failed commands to
+     */
+    MediaCommandQueue(final boolean async, final int pipelineDepth,
+            final PlaybackState playback) {
+        this(async, pipelineDepth, playback, MediaControlChannel.READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param async
+     *            true to send commands in the background, false to send them before returning
+     * @param pipelineDepth
+     *            maximum number of commands sent to a service before their responses are read
+     * @param playback
+     *            the playback state to report failed commands to
+     * @param readTimeoutMillis
+     *            time to wait for the media box to answer a command
+     */
+    MediaCommandQueue(final boolean async, final int pipelineDepth,
+            final PlaybackState playback, final int readTimeoutMillis) {
+        this.async = async;
+        this.pipelineDepth = pipelineDepth;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.playback = playback;
+        if (async) {
+            Thread sender = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sendPending();
+                }
+            }, "lupine-commands");
+            sender.setDaemon(true);
+            sender.start();
+        }
+    }
+
+    /**
+     * Plays media. Pending seeks are discarded.
+     *
+     * @param url
+     *            the play URL
+     */
+    void play(final String url) {
+        submit(new Command(Kind.PLAY, url, 0));
+    }
+
+    /**
+     * Stops playback. Pending seeks are discarded.
+     *
+     * @param url
+     *            the stop URL
+     */
+    void stop(final String url) {
+        submit(new Command(Kind.STOP, url, 0));
+    }
+
+    /**
+     * Seeks relative to the current position, adding to a seek that has not been sent yet.
+     *
+     * @param urlPrefix
+     *            the seek URL, to which the seconds are appended
+     * @param seconds
+     *            seconds to seek, negative to seek backwards
+     */
+    void seek(final String urlPrefix, final long seconds) {
+        submit(new Command(Kind.SEEK, urlPrefix, seconds));
+    }
+
+    /**
+     * Sets the volume, replacing a volume that has not been sent yet.
+     *
+     * @param urlPrefix
+     *            the volume URL, to which the volume is appended
+     * @param volume
+     *            the volume
+     */
+    void volume(final String urlPrefix, final long volume) {
+        submit(new Command(Kind.VOLUME, urlPrefix, volume));
+    }
+
+    /**
+     * Sends any other command, which is never coalesced.
+     *
+     * @param url
+     *            the command URL
+     */
+    void send(final String url) {
+        submit(new Command(Kind.OTHER, url, 0));
+    }
+
+    private void submit(final Command command) {
+        if (!async) {
+            execute(Collections.singletonList(command));
+            return;
+        }
+        synchronized (pending) {
+            if (!coalesce(command)) {
+                pending.addLast(command);
+            }
+            pending.notifyAll();
+        }
+    }
+
+    /**
+     * Merges a command into the pending commands if possible. Called with the lock held.
+     *
+     * @return true if the command was merged and must not be queued
+     */
+    private boolean coalesce(final Command command) {
+        switch (command.kind) {
+            case PLAY:
+            case STOP:
+                for (Iterator<Command> it = pending.iterator(); it.hasNext();) {
+                    if (it.next().kind == Kind.SEEK) {
+                        it.remove();
+                    }
+                }
+                return false;
+            case SEEK:
+                // only a seek since the last play or stop is relative to the same media
+                for (Iterator<Command> it = pending.descendingIterator(); it.hasNext();) {
+                    Command queued = it.next();
+                    if (queued.kind == Kind.PLAY || queued.kind == Kind.STOP) {
+                        return false;
+                    }
+                    if (queued.kind == Kind.SEEK && queued.urlPrefix.equals(command.urlPrefix)) {
+                        queued.value += command.value;
+                        if (queued.value == 0) {
+                            it.remove();
+                        }
+                        return true;
+                    }
+                }
+                return false;
+            case VOLUME:
+                for (Command queued : pending) {
+                    if (queued.kind == Kind.VOLUME && queued.urlPrefix.equals(command.urlPrefix)) {
+                        queued.value = command.value;
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private void sendPending() {
+        while (true) {
+            List<Command> batch;
+            synchronized (pending) {
+                while (pending.isEmpty()) {
+                    try {
+                        pending.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                batch = new ArrayList<Command>(pending);
+                pending.clear();
+            }
+
+            // consecutive commands for the same service are pipelined together
+            int start = 0;
+            while (start < batch.size()) {
+                String origin = batch.get(start).getOrigin();
+                int end = start + 1;
+                while (end < batch.size() && origin != null
+                        && origin.equals(batch.get(end).getOrigin())) {
+                    end++;
+                }
+                execute(batch.subList(start, end));
+                start = end;
+            }
+        }
+    }
+
+    /**
+     * Sends commands for the same service, retrying those that were not answered.
+     */
+    private void execute(final List<Command> commands) {
+        List<String> urls = new ArrayList<String>(commands.size());
+        for (Command command : commands) {
+            urls.add(command.getUrl());
+        }
+        MediaControlChannel channel;
+        try {
+            channel = getChannel(commands.get(0).getOrigin(), urls.get(0));
+        } catch (MalformedURLException e) {
+            log.warn("Dropping commands with invalid URL " + urls, e);
+            playback.commandFailed();
+            return;
+        }
+
+        int answered = 0;
+        for (int attempt = 1;; attempt++) {
+            List<String> remaining = urls.subList(answered, urls.size());
+            try {
+                logResponses(remaining, channel.exchange(remaining));
+                return;
+            } catch (PipelineException e) {
+                logResponses(remaining, e.getResponses());
+                answered += e.getResponses().size();
+                if (!e.isUndelivered() && !isRepeatable(commands.subList(answered,
+                        commands.size()))) {
+                    log.warn("Not resending " + urls.subList(answered, urls.size())
+                            + ", which may have reached the media box", e);
+                    playback.commandFailed();
+                    return;
+                }
+                if (attempt == MAX_ATTEMPTS) {
+                    log.warn("Giving up on " + urls.subList(answered, urls.size()) + " after "
+                            + attempt + " attempts", e);
+                    playback.commandFailed();
+                    return;
+                }
+                log.info("Retrying {} after {}", urls.subList(answered, urls.size()),
+                        e.toString());
+            }
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static boolean isRepeatable(final List<Command> commands) {
+        for (Command command : commands) {
+            if (!command.kind.repeatable) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private MediaControlChannel getChannel(final String origin, final String url)
+            throws MalformedURLException {
+        if (origin == null) {
+            throw new MalformedURLException("Invalid URL " + url);
+        }
+        MediaControlChannel channel = channels.get(origin);
+        if (channel == null) {
+            channel = new MediaControlChannel(url, pipelineDepth, readTimeoutMillis);
+            MediaControlChannel existing = channels.putIfAbsent(origin, channel);
+            if (existing != null) {
+                channel = existing;
+            }
+        }
+        return channel;
+    }
+
+    private void logResponses(final List<String> urls, final List<Response> responses) {
+        for (int i = 0; i < responses.size(); i++) {
+            Response response = responses.get(i);
+            if (response.getStatus() < 200 || response.getStatus() >= 300) {
+                log.warn("Unexpected status {} from {}", response.getStatus(), urls.get(i));
+                playback.commandFailed();
+            } else {
+                log.debug("Response to {}: {}", urls.get(i), response.getBody());
+            }
+        }
+    }
+
+    /**
+     * A command, whose value is appended to the URL prefix for seeks and volumes.
+     */
+    private static final class Command {
+        private final Kind kind;
+        private final String urlPrefix;
+        // changed when a later command is merged, guarded by the queue's lock
+        private long value;
+
+        private Command(final Kind kind, final String urlPrefix, final long value) {
+            this.kind = kind;
+            this.urlPrefix = urlPrefix;
+            this.value = value;
+        }
+
+        private String getUrl() {
+            return kind == Kind.SEEK || kind == Kind.VOLUME ? urlPrefix + value : urlPrefix;
+        }
+
+        /**
+         * Returns the scheme, host and port of the command's service, or null if its URL is
+         * invalid.
+         */
+        private String getOrigin() {
+            try {
+                return MediaControlChannel.getOrigin(urlPrefix);
+            } catch (MalformedURLException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package lupine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent HTTP/1.1 connection to one Lupine web service, over which commands are pipelined:
+ * a batch of requests is written at once and the responses are read in order, so a burst of
+ * commands costs one round trip instead of one per command.
+ * <p>
+ * The connection is opened on first use and kept open between batches. A connection the service
+ * closed while it was idle is detected when the batch cannot be written, or when the connection
+ * is closed or reset before any byte of the first response arrives, and the batch is sent again
+ * on a new connection. Any other failure after a batch was written, such as a read timeout, may
+ * come after the service ran the commands, so they are not sent again. If the service closes the
+ * connection after a response, e.g. because it only speaks HTTP/1.0, the requests it did not
+ * answer are sent again on a new connection, and from then on requests are sent one at a time.
+ * <p>
+ * An https service must present a certificate that is trusted and issued for its host name, which
+ * is also sent in the handshake for services that host several names.
+ * <p>
+ * Timeouts are read from the same system properties as the shared web service client,
+ * {@code webservice.connectTimeoutMillis} and {@code webservice.readTimeoutMillis}.
+ */
+final class MediaControlChannel {
+    private static final Logger log = LoggerFactory.getLogger(MediaControlChannel.class);
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int CONNECT_TIMEOUT_MILLIS = Integer.getInteger(
+            "webservice.connectTimeoutMillis", 2000);
+    static final int READ_TIMEOUT_MILLIS = Integer.getInteger(
+            "webservice.readTimeoutMillis", 5000);
+    private static final int MAX_LINE_LENGTH = 8192;
+
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    private final String hostHeader;
+    private final int maxPipelineDepth;
+    private final int readTimeoutMillis;
+
+    // guarded by this
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private boolean pipelining = true;
+    private long bytesRead;
+
+    /**
+     * @param origin
+     *            any URL of the web service, of which only the scheme, host and port are used
+     * @param maxPipelineDepth
+     *            maximum number of requests written before their responses are read
+     * @throws MalformedURLException
+     *             if the URL is not an http or https URL
+     */
+    MediaControlChannel(final String origin, final int maxPipelineDepth)
+            throws MalformedURLException {
+        this(origin, maxPipelineDepth, READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param origin
+     *            any URL of the web service, of which only the scheme, host and port are used
+     * @param maxPipelineDepth
+     *            maximum number of requests written before their responses are read
+     * @param readTimeoutMillis
+     *            time to wait for a response before the exchange fails
+     * @throws MalformedURLException
+     *             if the URL is not an http or https URL
+     */
+    MediaControlChannel(final String origin, final int maxPipelineDepth,
+            final int readTimeoutMillis) throws MalformedURLException {
+        URL url = new URL(origin);
+        this.secure = "https".equalsIgnoreCase(url.getProtocol());
+        if (!secure && !"http".equalsIgnoreCase(url.getProtocol())) {
+            throw new MalformedURLException("Not an HTTP URL: " + origin);
+        }
+        this.host = url.getHost();
+        this.port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        this.hostHeader = url.getPort() == -1 ? host : host + ":" + port;
+        this.maxPipelineDepth = Math.max(1, maxPipelineDepth);
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Returns the key of the channel for a URL: its scheme, host and port.
+     *
+     * @throws MalformedURLException
+     *             if the URL is not valid
+     */
+    static String getOrigin(final String url) throws MalformedURLException {
+        URL parsed = new URL(url);
+        return parsed.getProtocol().toLowerCase(Locale.ENGLISH) + "://"
+                + parsed.getHost().toLowerCase(Locale.ENGLISH) + ":"
+                + (parsed.getPort() == -1 ? parsed.getDefaultPort() : parsed.getPort());
+    }
+
+    /**
+     * Sends GET requests and reads their responses.
+     *
+     * @param urls
+     *            URLs of this channel's origin
+     * @return the responses, in the order of the URLs
+     * @throws PipelineException
+     *             if not all requests were answered; the exception holds the responses of those
+     *             that were, and tells whether the others may have reached the service
+     */
+    synchronized List<Response> exchange(final List<String> urls) throws PipelineException {
+        List<String> requests = new ArrayList<String>(urls.size());
+        try {
+            for (String url : urls) {
+                requests.add(toRequest(url));
+            }
+        } catch (MalformedURLException e) {
+            throw new PipelineException(e, Collections.<Response>emptyList(), true);
+        }
+
+        List<Response> responses = new ArrayList<Response>(urls.size());
+        boolean resent = false;
+        while (responses.size() < requests.size()) {
+            int first = responses.size();
+            int end = Math.min(requests.size(), first + (pipelining ? maxPipelineDepth : 1));
+            boolean reused = false;
+            boolean written = false;
+            long readBefore = bytesRead;
+            try {
+                reused = connect();
+                for (int i = first; i < end; i++) {
+                    out.write(requests.get(i).getBytes(ISO_8859_1));
+                }
+                out.flush();
+                written = true;
+                for (int i = first; i < end; i++) {
+                    Response response = readResponse();
+                    responses.add(response);
+                    if (!response.keepAlive) {
+                        // the service ignores any further requests on this connection
+                        close();
+                        if (i < end - 1) {
+                            log.info("{} closes connections, no longer pipelining", hostHeader);
+                            pipelining = false;
+                        }
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                // an idle connection closed by the service fails before any response is read;
+                // after a timeout or a partial response the service may have run the requests
+                boolean undelivered = !written || reused && responses.size() == first
+                        && bytesRead == readBefore && isClosedByPeer(e);
+                if (undelivered && reused && !resent) {
+                    resent = true;
+                    log.debug("Reconnecting to {} after {}", hostHeader, e.toString());
+                    continue;
+                }
+                throw new PipelineException(e, responses, undelivered);
+            }
+        }
+        return responses;
+    }
+
+    private static boolean isClosedByPeer(final IOException e) {
+        // a read timeout is an InterruptedIOException, not a SocketException
+        return e instanceof EOFException || e instanceof SocketException;
+    }
+
+    /**
+     * Closes the connection. It is opened again by the next exchange.
+     */
+    synchronized void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.debug("Unable to close connection to {}", hostHeader, e);
+            }
+        }
+        socket = null;
+        in = null;
+        out = null;
+    }
+
+    /**
+     * Opens the connection if it is not open.
+     *
+     * @return true if an open connection is reused
+     */
+    private boolean connect() throws IOException {
+        if (socket != null) {
+            return true;
+        }
+        Socket opened = new Socket();
+        try {
+            opened.setTcpNoDelay(true);
+            opened.setKeepAlive(true);
+            opened.setSoTimeout(readTimeoutMillis);
+            opened.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            if (secure) {
+                opened = startTls(opened);
+            }
+            in = new BufferedInputStream(opened.getInputStream());
+            out = new BufferedOutputStream(opened.getOutputStream());
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        socket = opened;
+        return false;
+    }
+
+    /**
+     * Layers TLS over a connected socket, verifying that the certificate matches the host.
+     */
+    private SSLSocket startTls(final Socket plain) throws IOException {
+        // passing the host name sends it in the handshake (SNI)
+        SSLSocket tls = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                .createSocket(plain, host, port, true);
+        SSLParameters parameters = tls.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        tls.setSSLParameters(parameters);
+        tls.startHandshake();
+        return tls;
+    }
+
+    private String toRequest(final String url) throws MalformedURLException {
+        URL parsed = new URL(url);
+        String target = parsed.getFile().isEmpty() ? "/" : parsed.getFile();
+        // spoken names are not always encoded by the caller
+        return "GET " + target.replace(" ", "%20") + " HTTP/1.1\r\nHost: " + hostHeader
+                + "\r\nConnection: keep-alive\r\n\r\n";
+    }
+
+    private Response readResponse() throws IOException {
+        while (true) {
+            String statusLine = readLine();
+            String[] parts = statusLine.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("Invalid status line from " + hostHeader + ": "
+                        + statusLine);
+            }
+            int status;
+            try {
+                status = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid status line from " + hostHeader + ": "
+                        + statusLine);
+            }
+
+            long contentLength = -1;
+            boolean chunked = false;
+            String connection = null;
+            for (String header = readLine(); !header.isEmpty(); header = readLine()) {
+                int colon = header.indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = header.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+                String value = header.substring(colon + 1).trim();
+                if ("content-length".equals(name)) {
+                    contentLength = Long.parseLong(value);
+                } else if ("transfer-encoding".equals(name)) {
+                    chunked = value.toLowerCase(Locale.ENGLISH).contains("chunked");
+                } else if ("connection".equals(name)) {
+                    connection = value.toLowerCase(Locale.ENGLISH);
+                }
+            }
+            if (status >= 100 && status < 200) {
+                // interim response, the final one follows
+                continue;
+            }
+
+            boolean keepAlive =
+                    parts[0].equals("HTTP/1.0") ? connection != null
+                            && connection.contains("keep-alive") : connection == null
+                            || !connection.contains("close");
+            byte[] body;
+            if (status == 204 || status == 304) {
+                body = new byte[0];
+            } else if (chunked) {
+                body = readChunked();
+            } else if (contentLength >= 0) {
+                body = readFully(contentLength);
+            } else {
+                // the body ends when the service closes the connection
+                body = readToEnd();
+                keepAlive = false;
+            }
+            return new Response(status, new String(body, UTF_8), keepAlive);
+        }
+    }
+
+    private byte[] readChunked() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (true) {
+            String sizeLine = readLine();
+            int extension = sizeLine.indexOf(';');
+            long size;
+            try {
+                size = Long.parseLong((extension < 0 ? sizeLine : sizeLine
+                        .substring(0, extension)).trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid chunk size from " + hostHeader + ": " + sizeLine);
+            }
+            if (size == 0) {
+                // skip trailers
+                while (!readLine().isEmpty()) {
+                    continue;
+                }
+                return body.toByteArray();
+            }
+            body.write(readFully(size));
+            readLine();
+        }
+    }
+
+    private byte[] readFully(final long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Response from " + hostHeader + " is too large: " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        int read = 0;
+        while (read < bytes.length) {
+            int count = in.read(bytes, read, bytes.length - read);
+            if (count < 0) {
+                throw new EOFException("Connection to " + hostHeader + " closed in a response");
+            }
+            read += count;
+            bytesRead += count;
+        }
+        return bytes;
+    }
+
+    private byte[] readToEnd() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+            body.write(buffer, 0, count);
+            bytesRead += count;
+        }
+        return body.toByteArray();
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection to " + hostHeader + " closed");
+            }
+            bytesRead++;
+            if (b == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() == MAX_LINE_LENGTH) {
+                throw new IOException("Line too long in response from " + hostHeader);
+            }
+            line.append((char) b);
+        }
+    }
+
+    /**
+     * A response to a command.
+     */
+    static final class Response {
+        private final int status;
+        private final String body;
+        private final boolean keepAlive;
+
+        private Response(final int status, final String body, final boolean keepAlive) {
+            this.status = status;
+            this.body = body;
+            this.keepAlive = keepAlive;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        String getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Thrown when some requests of an exchange were not answered.
+     */
+    static final class PipelineException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Response> responses;
+        private final boolean undelivered;
+
+        private PipelineException(final IOException cause, final List<Response> responses,
+                final boolean undelivered) {
+            super(cause.getMessage(), cause);
+            this.responses = Collections.unmodifiableList(new ArrayList<Response>(responses));
+            this.undelivered = undelivered;
+        }
+
+        /**
+         * Returns the responses to the requests that were answered, which are the first ones.
+         */
+        List<Response> getResponses() {
+            return responses;
+        }
+
+        /**
+         * Returns true if the requests that were not answered cannot have reached the service, so
+         * sending them again does not run them twice. False if they were written and the failure
+         * came later, e.g. a read timeout.
+         */
+        boolean isUndelivered() {
+            return undelivered;
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package lupine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the listed media names closest to a spoken name, e.g. "The.Office.S02" for "the office
+ * season two".
+ * <p>
+ * Names are normalized to a title of lower case words, without punctuation or file extensions,
+ * and the season and episode numbers, written as S01E02 or spoken as "season one episode two", are
+ * kept apart from the title. The names with a title that matches exactly are found in a hash map.
+ * Otherwise the names sharing the most character trigrams with the spoken title are looked up in
+ * an inverted index, names that sound alike are found by their phonetic key, and the few
+ * candidates are ranked by edit distance. A lookup only touches the names that share a trigram or
+ * a phonetic key with the spoken title.
+ * <p>
+ * Of the names with the title found, those with the spoken season and episode are returned. If
+ * several remain, e.g. "The.Office.S01" and "The.Office.S02" for "the office", the caller has to ask
+ * which one was meant.
+ */
+final class MediaNameIndex {
+    /**
+     * Number of candidates, by trigram similarity, that are ranked by edit distance.
+     */
+    private static final int MAX_CANDIDATES = 8;
+
+    /**
+     * Minimum similarity, between 0 and 1, of a name to be returned.
+     */
+    private static final double MIN_SIMILARITY = 0.5;
+
+    private static final double PHONETIC_BONUS = 0.2;
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern EXTENSION =
+            Pattern.compile("\\.(avi|m4v|mkv|mov|mp4|mpe?g|webm|wmv)$");
+    private static final Pattern SEASON_EPISODE =
+            Pattern.compile("^(?:s(\\d{1,4})(?:e(\\d{1,4}))?|e(\\d{1,4}))$");
+    private static final Pattern DIGITS = Pattern.compile("^\\d{1,4}$");
+    private static final String[] NUMBER_WORDS = {"zero", "one", "two", "three", "four", "five",
+            "six", "seven", "eight", "nine", "ten", "eleven", "twelve", "thirteen", "fourteen",
+            "fifteen", "sixteen", "seventeen", "eighteen", "nineteen", "twenty"};
+
+    /**
+     * Season or episode number of a name that does not have one.
+     */
+    static final int UNSPECIFIED = -1;
+
+    private static final int[] NO_POSTINGS = new int[0];
+
+    private final String[] names;
+    private final String[] keys;
+    private final int[] seasons;
+    private final int[] episodes;
+    private final Map<String, int[]> exact = new HashMap<String, int[]>();
+    private final Map<String, int[]> phonetic = new HashMap<String, int[]>();
+    private final Map<String, int[]> trigrams = new HashMap<String, int[]>();
+    private final int[] trigramCounts;
+
+    private MediaNameIndex(final List<String> names) {
+        this.names = names.toArray(new String[names.size()]);
+        this.keys = new String[this.names.length];
+        this.seasons = new int[this.names.length];
+        this.episodes = new int[this.names.length];
+        this.trigramCounts = new int[this.names.length];
+
+        Map<String, List<Integer>> exactLists = new HashMap<String, List<Integer>>();
+        Map<String, List<Integer>> phoneticLists = new HashMap<String, List<Integer>>();
+        Map<String, List<Integer>> trigramLists = new HashMap<String, List<Integer>>();
+        int[] seasonEpisode = new int[2];
+        for (int id = 0; id < this.names.length; id++) {
+            String key = normalize(this.names[id], seasonEpisode);
+            keys[id] = key;
+            seasons[id] = seasonEpisode[0];
+            episodes[id] = seasonEpisode[1];
+            if (key.isEmpty()) {
+                continue;
+            }
+            // all names of a title are kept, they may differ in season or episode
+            boolean newKey = !exactLists.containsKey(key);
+            addPosting(exactLists, key, id);
+            if (!newKey) {
+                continue;
+            }
+            addPosting(phoneticLists, getPhoneticKey(key), id);
+            List<String> keyTrigrams = getTrigrams(key);
+            trigramCounts[id] = keyTrigrams.size();
+            for (String trigram : keyTrigrams) {
+                addPosting(trigramLists, trigram, id);
+            }
+        }
+        toPostings(exactLists, exact);
+        toPostings(phoneticLists, phonetic);
+        toPostings(trigramLists, trigrams);
+    }
+
+    /**
+     * Indexes media names.
+     *
+     * @param names
+     *            the names as listed by the web service
+     * @return the index
+     */
+    static MediaNameIndex of(final List<String> names) {
+        return new MediaNameIndex(names);
+    }
+
+    /**
+     * Returns the listed names closest to a spoken name.
+     *
+     * @param spokenName
+     *            the name as recognized
+     * @return the listed names, in the order of the list: one if the spoken name is unambiguous,
+     *         several if names of the same title match it equally well, e.g. different seasons of
+     *         a series for a spoken name without a season, and none if no name is similar enough
+     */
+    List<String> find(final String spokenName) {
+        int[] seasonEpisode = new int[2];
+        String key = normalize(spokenName, seasonEpisode);
+        if (key.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int[] sameTitle = exact.get(key);
+        if (sameTitle == null) {
+            int bestId = findClosestTitle(key);
+            if (bestId < 0) {
+                return Collections.emptyList();
+            }
+            sameTitle = exact.get(keys[bestId]);
+        }
+        return select(sameTitle, seasonEpisode[0], seasonEpisode[1]);
+    }
+
+    /**
+     * Returns the names of a title with the spoken season and episode. Names with exactly the
+     * spoken numbers are preferred, e.g. "The.Office" for "the office" over "The.Office.S01";
+     * otherwise a number that was not spoken matches any number.
+     */
+    private List<String> select(final int[] sameTitle, final int season, final int episode) {
+        List<String> exactMatches = new ArrayList<String>(1);
+        List<String> matches = new ArrayList<String>(sameTitle.length);
+        for (int id : sameTitle) {
+            if (seasons[id] == season && episodes[id] == episode) {
+                exactMatches.add(names[id]);
+            } else if ((season == UNSPECIFIED || seasons[id] == season)
+                    && (episode == UNSPECIFIED || episodes[id] == episode)) {
+                matches.add(names[id]);
+            }
+        }
+        return exactMatches.isEmpty() ? matches : exactMatches;
+    }
+
+    /**
+     * Returns the name with the title most similar to a spoken title, or -1 if no title is
+     * similar enough.
+     */
+    private int findClosestTitle(final String key) {
+
+        // count the trigrams each name shares with the spoken name
+        List<String> spokenTrigrams = getTrigrams(key);
+        Map<Integer, int[]> shared = new HashMap<Integer, int[]>();
+        for (String trigram : spokenTrigrams) {
+            int[] postings = trigrams.get(trigram);
+            for (int id : postings == null ? NO_POSTINGS : postings) {
+                int[] count = shared.get(Integer.valueOf(id));
+                if (count == null) {
+                    shared.put(Integer.valueOf(id), new int[] {1});
+                } else {
+                    count[0]++;
+                }
+            }
+        }
+
+        int[] soundsAlike = phonetic.get(getPhoneticKey(key));
+        List<Integer> candidates = getTopCandidates(shared, spokenTrigrams.size());
+        for (int id : soundsAlike == null ? NO_POSTINGS : soundsAlike) {
+            if (!candidates.contains(Integer.valueOf(id))) {
+                candidates.add(Integer.valueOf(id));
+            }
+        }
+
+        int bestId = -1;
+        double bestSimilarity = MIN_SIMILARITY;
+        for (Integer candidate : candidates) {
+            int id = candidate.intValue();
+            int[] count = shared.get(candidate);
+            double dice =
+                    count == null ? 0.0 : 2.0 * count[0]
+                            / (spokenTrigrams.size() + trigramCounts[id]);
+            String candidateKey = keys[id];
+            double editSimilarity =
+                    1.0 - (double) getEditDistance(key, candidateKey)
+                            / Math.max(key.length(), candidateKey.length());
+            double similarity = (dice + editSimilarity) / 2;
+            if (contains(soundsAlike, id)) {
+                similarity += PHONETIC_BONUS;
+            }
+            if (similarity > bestSimilarity) {
+                bestSimilarity = similarity;
+                bestId = id;
+            }
+        }
+        return bestId;
+    }
+
+    /**
+     * Returns the names sharing the most trigrams with the spoken name, relative to their own
+     * number of trigrams.
+     */
+    private List<Integer> getTopCandidates(final Map<Integer, int[]> shared,
+            final int spokenTrigramCount) {
+        int[] topIds = new int[MAX_CANDIDATES];
+        double[] topDice = new double[MAX_CANDIDATES];
+        int size = 0;
+        for (Map.Entry<Integer, int[]> entry : shared.entrySet()) {
+            int id = entry.getKey().intValue();
+            double dice = 2.0 * entry.getValue()[0] / (spokenTrigramCount + trigramCounts[id]);
+            if (size == MAX_CANDIDATES && dice <= topDice[size - 1]) {
+                continue;
+            }
+            int position = size == MAX_CANDIDATES ? size - 1 : size++;
+            while (position > 0 && topDice[position - 1] < dice) {
+                topIds[position] = topIds[position - 1];
+                topDice[position] = topDice[position - 1];
+                position--;
+            }
+            topIds[position] = id;
+            topDice[position] = dice;
+        }
+        List<Integer> candidates = new ArrayList<Integer>(size + 2);
+        for (int i = 0; i < size; i++) {
+            candidates.add(Integer.valueOf(topIds[i]));
+        }
+        return candidates;
+    }
+
+    /**
+     * Lower cases a name and reduces it to the words of its title, dropping a file extension.
+     * Season and episode numbers, such as S01, S01E02 or "season 1 episode two", are taken out of
+     * the title, unless they are all of it: the channel "E4" has the title "e4" and no episode.
+     * Spelled out letters and digits, e.g. "k c b s" or "e 4", are joined into one word.
+     *
+     * @param name
+     *            the listed or spoken name
+     * @param seasonEpisode
+     *            receives the season and the episode number, {@link #UNSPECIFIED} if there is none
+     * @return the title
+     */
+    static String normalize(final String name, final int[] seasonEpisode) {
+        seasonEpisode[0] = UNSPECIFIED;
+        seasonEpisode[1] = UNSPECIFIED;
+        if (name == null) {
+            return "";
+        }
+        String lowerCase =
+                EXTENSION.matcher(name.trim().toLowerCase(Locale.ENGLISH)).replaceFirst("");
+        String[] words = SEPARATORS.split(lowerCase);
+        String key = toTitle(words, seasonEpisode, true);
+        if (key.isEmpty()) {
+            seasonEpisode[0] = UNSPECIFIED;
+            seasonEpisode[1] = UNSPECIFIED;
+            key = toTitle(words, seasonEpisode, false);
+        }
+        return key;
+    }
+
+    /**
+     * Joins the words of a name into its title, taking season and episode numbers out of it if
+     * asked to.
+     */
+    private static String toTitle(final String[] words, final int[] seasonEpisode,
+            final boolean parseNumbers) {
+        StringBuilder key = new StringBuilder();
+        boolean previousIsCharacter = false;
+        for (int i = 0; i < words.length; i++) {
+            String word = words[i];
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (parseNumbers) {
+                Matcher numbers = SEASON_EPISODE.matcher(word);
+                if (numbers.matches()) {
+                    if (numbers.group(1) != null) {
+                        seasonEpisode[0] = Integer.parseInt(numbers.group(1));
+                    }
+                    String episode =
+                            numbers.group(2) != null ? numbers.group(2) : numbers.group(3);
+                    if (episode != null) {
+                        seasonEpisode[1] = Integer.parseInt(episode);
+                    }
+                    continue;
+                }
+                int number = i + 1 < words.length ? parseNumber(words[i + 1]) : UNSPECIFIED;
+                if (number != UNSPECIFIED && (word.equals("season") || word.equals("series"))) {
+                    seasonEpisode[0] = number;
+                    i++;
+                    continue;
+                }
+                if (number != UNSPECIFIED && word.equals("episode")) {
+                    seasonEpisode[1] = number;
+                    i++;
+                    continue;
+                }
+            }
+            boolean isCharacter = word.length() == 1;
+            if (key.length() > 0 && !(isCharacter && previousIsCharacter)) {
+                key.append(' ');
+            }
+            key.append(word);
+            previousIsCharacter = isCharacter;
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the value of a number written in digits or as a word up to twenty, or
+     * {@link #UNSPECIFIED} if the word is not a number.
+     */
+    private static int parseNumber(final String word) {
+        if (DIGITS.matcher(word).matches()) {
+            return Integer.parseInt(word);
+        }
+        for (int i = 0; i < NUMBER_WORDS.length; i++) {
+            if (NUMBER_WORDS[i].equals(word)) {
+                return i;
+            }
+        }
+        return UNSPECIFIED;
+    }
+
+    /**
+     * Returns the trigrams of a normalized name, padded with a space at both ends so that short
+     * names and word boundaries count.
+     */
+    private static List<String> getTrigrams(final String key) {
+        String padded = " " + key + " ";
+        List<String> result = new ArrayList<String>(padded.length());
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            String trigram = padded.substring(i, i + 3);
+            if (!result.contains(trigram)) {
+                result.add(trigram);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the Soundex codes of the words of a normalized name, so that names which sound alike
+     * but are spelled differently, e.g. "offis" and "office", share a key.
+     */
+    static String getPhoneticKey(final String key) {
+        StringBuilder phoneticKey = new StringBuilder();
+        for (String word : key.split(" ")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (phoneticKey.length() > 0) {
+                phoneticKey.append(' ');
+            }
+            char first = word.charAt(0);
+            phoneticKey.append(first);
+            char previous = getSoundexDigit(first);
+            int digits = 0;
+            for (int i = 1; i < word.length() && digits < 3; i++) {
+                char c = word.charAt(i);
+                char digit = getSoundexDigit(c);
+                if (digit != '0' && digit != previous) {
+                    phoneticKey.append(digit);
+                    digits++;
+                }
+                // h and w do not separate letters with the same code
+                if (c != 'h' && c != 'w') {
+                    previous = digit;
+                }
+            }
+        }
+        return phoneticKey.toString();
+    }
+
+    private static char getSoundexDigit(final char c) {
+        switch (c) {
+            case 'b': case 'f': case 'p': case 'v':
+                return '1';
+            case 'c': case 'g': case 'j': case 'k': case 'q': case 's': case 'x': case 'z':
+                return '2';
+            case 'd': case 't':
+                return '3';
+            case 'l':
+                return '4';
+            case 'm': case 'n':
+                return '5';
+            case 'r':
+                return '6';
+            default:
+                return '0';
+        }
+    }
+
+    /**
+     * Returns the Levenshtein distance of two strings.
+     */
+    static int getEditDistance(final String a, final String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private static boolean contains(final int[] postings, final int id) {
+        if (postings != null) {
+            for (int posting : postings) {
+                if (posting == id) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void addPosting(final Map<String, List<Integer>> lists, final String key,
+            final int id) {
+        List<Integer> list = lists.get(key);
+        if (list == null) {
+            list = new ArrayList<Integer>(2);
+            lists.put(key, list);
+        }
+        list.add(Integer.valueOf(id));
+    }
+
+    private static void toPostings(final Map<String, List<Integer>> lists,
+            final Map<String, int[]> postings) {
+        for (Map.Entry<String, List<Integer>> list : lists.entrySet()) {
+            int[] ids = new int[list.getValue().size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = list.getValue().get(i).intValue();
+            }
+            postings.put(list.getKey(), ids);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package lupine;
+
+import lupine.LupineSpeechlet.MediaType;
+
+/**
+ * The skill's mirror of what the media box is doing: the media playing, the playback position,
+ * the volume and any recording in progress. It is kept outside the Alexa session, so it outlives
+ * the session that started playback, and intents that only report or build on the state answer
+ * from memory without asking the media box.
+ * <p>
+ * The mirror is updated just before a command is submitted, never after, so that a play or stop
+ * cannot clear the failure of its own command, which is reported while the command is sent in
+ * synchronous mode and may be reported at any time in asynchronous mode. If the media box rejects
+ * a command or cannot be reached, the state is marked as uncertain until the next play or stop.
+ */
+final class PlaybackState {
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_MINUTE = 60000L;
+
+    // guarded by this
+    private MediaType mediaType;
+    private String title;
+    private boolean playing;
+    private long positionSeconds;
+    private long positionSince;
+    private Long volume;
+    private String recordingChannel;
+    private String recordingFile;
+    private long recordingUntil;
+    private boolean uncertain;
+
+    /**
+     * Records that media started playing from the beginning.
+     *
+     * @param mediaType
+     *            the type of media
+     * @param title
+     *            the name of the media as listed by the web service
+     */
+    synchronized void played(final MediaType mediaType, final String title) {
+        this.mediaType = mediaType;
+        this.title = title;
+        this.playing = true;
+        this.positionSeconds = 0;
+        this.positionSince = System.currentTimeMillis();
+        this.uncertain = false;
+    }
+
+    /**
+     * Records a seek relative to the current position.
+     */
+    synchronized void sought(final long seconds) {
+        if (playing) {
+            positionSeconds = Math.max(0, getPositionSeconds() + seconds);
+            positionSince = System.currentTimeMillis();
+        }
+    }
+
+    synchronized void volumeSet(final long volume) {
+        this.volume = Long.valueOf(volume);
+    }
+
+    synchronized void stopped() {
+        playing = false;
+        uncertain = false;
+    }
+
+    /**
+     * Records a recording started by the media box.
+     *
+     * @param channel
+     *            the channel being recorded
+     * @param file
+     *            the file recorded to
+     * @param minutes
+     *            duration of the recording
+     */
+    synchronized void recordingStarted(final String channel, final String file,
+            final long minutes) {
+        recordingChannel = channel;
+        recordingFile = file;
+        recordingUntil = System.currentTimeMillis() + minutes * MILLIS_PER_MINUTE;
+    }
+
+    /**
+     * Records that a command was rejected by the media box or could not be sent, so the state may
+     * no longer match it.
+     */
+    synchronized void commandFailed() {
+        uncertain = true;
+    }
+
+    /**
+     * Returns a consistent copy of the state.
+     */
+    synchronized Snapshot getSnapshot() {
+        long now = System.currentTimeMillis();
+        boolean recording = recordingFile != null && now < recordingUntil;
+        return new Snapshot(playing ? mediaType : null, playing ? title : null,
+                playing ? getPositionSeconds() : 0, volume, recording ? recordingChannel : null,
+                recording ? recordingFile : null, recording ? (recordingUntil - now)
+                        / MILLIS_PER_MINUTE : 0, uncertain);
+    }
+
+    private long getPositionSeconds() {
+        return positionSeconds + (System.currentTimeMillis() - positionSince) / MILLIS_PER_SECOND;
+    }
+
+    /**
+     * An immutable copy of the playback state.
+     */
+    static final class Snapshot {
+        private final MediaType mediaType;
+        private final String title;
+        private final long positionSeconds;
+        private final Long volume;
+        private final String recordingChannel;
+        private final String recordingFile;
+        private final long recordingMinutesLeft;
+        private final boolean uncertain;
+
+        private Snapshot(final MediaType mediaType, final String title,
+                final long positionSeconds, final Long volume, final String recordingChannel,
+                final String recordingFile, final long recordingMinutesLeft,
+                final boolean uncertain) {
+            this.mediaType = mediaType;
+            this.title = title;
+            this.positionSeconds = positionSeconds;
+            this.volume = volume;
+            this.recordingChannel = recordingChannel;
+            this.recordingFile = recordingFile;
+            this.recordingMinutesLeft = recordingMinutesLeft;
+            this.uncertain = uncertain;
+        }
+
+        /**
+         * Returns the type of the media playing, or null if nothing is playing.
+         */
+        MediaType getMediaType() {
+            return mediaType;
+        }
+
+        /**
+         * Returns the name of the media playing, or null if nothing is playing.
+         */
+        String getTitle() {
+            return title;
+        }
+
+        /**
+         * Returns the estimated playback position, from the start of playback and the seeks since.
+         */
+        long getPositionSeconds() {
+            return positionSeconds;
+        }
+
+        /**
+         * Returns the volume last set, or null if it has not been set.
+         */
+        Long getVolume() {
+            return volume;
+        }
+
+        /**
+         * Returns the channel being recorded, or null if nothing is being recorded.
+         */
+        String getRecordingChannel() {
+            return recordingChannel;
+        }
+
+        String getRecordingFile() {
+            return recordingFile;
+        }
+
+        long getRecordingMinutesLeft() {
+            return recordingMinutesLeft;
+        }
+
+        /**
+         * Returns true if a command since the last play or stop failed.
+         */
+        boolean isUncertain() {
+            return uncertain;
+        }
+    }
+}
@@ -9,6 +9,8 @@
  */
 package savvyconsumer;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -26,6 +28,9 @@ import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import webservice.WebServiceClient;
 
 import com.amazon.speech.slu.Intent;
 import com.amazon.speech.slu.Slot;
@@ -369,10 +374,20 @@ public class SavvyConsumerSpeechlet implements Speechlet {
     private List<String> fetchTitles(String category) throws SpeechletException {
         List<String> titles = new LinkedList<String>();
         try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            // Make the actual http call and get the xml response.
-            Document doc = db.parse(getRequestUrl(category));
+            final DocumentBuilder db = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            // Make the actual http call and parse the xml response as it streams in.
+            Document doc =
+                    WebServiceClient.getInstance().get(getRequestUrl(category),
+                            new WebServiceClient.BodyHandler<Document>() {
+                                @Override
+                                public Document handle(InputStream body) throws IOException {
+                                    try {
+                                        return db.parse(body);
+                                    } catch (SAXException e) {
+                                        throw new IOException("Unable to parse response", e);
+                                    }
+                                }
+                            });
             NodeList nodeList = doc.getElementsByTagName("Title");
 
             for (int i = 0; i < nodeList.getLength(); i++) {
@@ -9,14 +9,14 @@
  */
 package scorekeeper;
 
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.SortedMap;
-
 import scorekeeper.storage.ScoreKeeperDao;
 import scorekeeper.storage.ScoreKeeperDynamoDbClient;
 import scorekeeper.storage.ScoreKeeperGame;
+import scorekeeper.storage.ScoreKeeperGameCache;
 import scorekeeper.storage.ScoreKeeperGameData;
+import scorekeeper.storage.ScoreKeeperGameStore;
+import scorekeeper.storage.ScoreKeeperScoreTable;
+import scorekeeper.storage.ScoreKeeperStorage;
 
 import com.amazon.speech.slu.Intent;
 import com.amazon.speech.speechlet.LaunchRequest;
@@ -43,17 +43,103 @@ public class ScoreKeeperManager {
      */
     private static final String SLOT_SCORE_NUMBER = "ScoreNumber";
 
+    /**
+     * Intent slot for the number of players to tell.
+     */
+    private static final String SLOT_TOP_NUMBER = "TopNumber";
+
+    /**
+     * Session attribute holding the next page of the leaderboard to tell.
+     */
+    private static final String SESSION_LEADERBOARD_PAGE = "leaderboardPage";
+
     /**
      * Maximum number of players for which scores must be announced while adding a score.
      */
     private static final int MAX_PLAYERS_FOR_SPEECH = 3;
 
-    private final ScoreKeeperDao scoreKeeperDao;
+    /**
+     * Number of players told and shown per leaderboard page. Leaderboards of larger games are
+     * told a page at a time, so a response never depends on the number of players.
+     */
+    private static final int LEADERBOARD_PAGE_SIZE = Math.max(1,
+            Integer.getInteger("scorekeeper.leaderboardPageSize", 10));
+
+    /**
+     * Prefix of the system properties configuring the game cache.
+     */
+    private static final String CACHE_PREFIX = "scorekeeper.cache.";
+
+    private static final long DEFAULT_WRITE_DELAY_MILLIS = 5000L;
+    private static final int DEFAULT_MAX_DIRTY_GAMES = 100;
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 300000L;
+
+    private final ScoreKeeperGameStore gameStore;
 
+    /**
+     * Creates a manager storing games in DynamoDB. By default games are stored as one document
+     * per customer, cached and written behind. If the {@code scorekeeper.scoreTable} system
+     * property names a table, games are stored there with one attribute per player, and scores are
+     * added atomically.
+     *
+     * @param amazonDynamoDbClient
+     *            the DynamoDB client
+     */
     public ScoreKeeperManager(final AmazonDynamoDBClient amazonDynamoDbClient) {
+        this(createGameStore(amazonDynamoDbClient));
+    }
+
+    /**
+     * Creates a manager storing games in a {@link ScoreKeeperStorage} backend, cached and written
+     * behind.
+     *
+     * @param storage
+     *            the storage backend
+     */
+    public ScoreKeeperManager(final ScoreKeeperStorage storage) {
+        this(createGameCache(new ScoreKeeperDao(storage)));
+    }
+
+    private ScoreKeeperManager(final ScoreKeeperGameStore gameStore) {
+        this.gameStore = gameStore;
+    }
+
+    private static ScoreKeeperGameStore createGameStore(
+            final AmazonDynamoDBClient amazonDynamoDbClient) {
+        String scoreTable = System.getProperty("scorekeeper.scoreTable");
+        if (scoreTable != null) {
+            return new ScoreKeeperScoreTable(amazonDynamoDbClient, scoreTable);
+        }
         ScoreKeeperDynamoDbClient dynamoDbClient =
                 new ScoreKeeperDynamoDbClient(amazonDynamoDbClient);
-        scoreKeeperDao = new ScoreKeeperDao(dynamoDbClient);
+        return createGameCache(new ScoreKeeperDao(dynamoDbClient));
+    }
+
+    private static ScoreKeeperGameCache createGameCache(final ScoreKeeperDao scoreKeeperDao) {
+        return new ScoreKeeperGameCache(scoreKeeperDao, Long.getLong(CACHE_PREFIX
+                + "writeDelayMillis", getDefaultWriteDelayMillis()), Integer.getInteger(CACHE_PREFIX
+                + "maxDirtyGames", DEFAULT_MAX_DIRTY_GAMES), Long.getLong(CACHE_PREFIX
+                + "idleTimeoutMillis", DEFAULT_IDLE_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * Returns the default write delay: none on AWS Lambda, which freezes the process as soon as
+     * the response is returned, so a game written behind could be lost with the container.
+     */
+    private static long getDefaultWriteDelayMillis() {
+        return System.getenv("AWS_LAMBDA_FUNCTION_NAME") == null ? DEFAULT_WRITE_DELAY_MILLIS
+                : 0L;
+    }
+
+    /**
+     * Writes the game of the session's customer to the database if it has unsaved changes. Called
+     * when the session ends.
+     *
+     * @param session
+     *            {@link Session} that ended
+     */
+    public void flushGame(Session session) {
+        gameStore.flush(session);
     }
 
     /**
@@ -69,7 +155,7 @@ public class ScoreKeeperManager {
         // Speak welcome message and ask user questions
         // based on whether there are players or not.
         String speechText, repromptText;
-        ScoreKeeperGame game = scoreKeeperDao.getScoreKeeperGame(session);
+        ScoreKeeperGame game = gameStore.getScoreKeeperGame(session);
 
         if (game == null || !game.hasPlayers()) {
             speechText = "ScoreKeeper, Let's start your game. Who's your first player?";
@@ -99,7 +185,7 @@ public class ScoreKeeperManager {
      * @return response for the new game intent.
      */
     public SpeechletResponse getNewGameIntentResponse(Session session, SkillContext skillContext) {
-        ScoreKeeperGame game = scoreKeeperDao.getScoreKeeperGame(session);
+        ScoreKeeperGame game = gameStore.getScoreKeeperGame(session);
 
         if (game == null) {
             return getAskSpeechletResponse("New game started. Who's your first player?",
@@ -108,7 +194,7 @@ public class ScoreKeeperManager {
 
         // Reset current game
         game.resetScores();
-        scoreKeeperDao.saveScoreKeeperGame(game);
+        gameStore.saveScoreKeeperGame(game);
 
         String speechText =
                 "New game started with " + game.getNumberOfPlayers() + " existing player"
@@ -148,15 +234,18 @@ public class ScoreKeeperManager {
         }
 
         // Load the previous game
-        ScoreKeeperGame game = scoreKeeperDao.getScoreKeeperGame(session);
+        ScoreKeeperGame game = gameStore.getScoreKeeperGame(session);
         if (game == null) {
             game = ScoreKeeperGame.newInstance(session, ScoreKeeperGameData.newInstance());
         }
 
-        game.addPlayer(newPlayerName);
+        if (!game.addPlayer(newPlayerName)) {
+            String speechText = newPlayerName + " has already joined your game. What else?";
+            return getAskSpeechletResponse(speechText, ScoreKeeperTextUtil.NEXT_HELP);
+        }
 
         // Save the updated game
-        scoreKeeperDao.saveScoreKeeperGame(game);
+        gameStore.saveScoreKeeperGame(game);
 
         String speechText = newPlayerName + " has joined your game. ";
         String repromptText = null;
@@ -206,40 +295,41 @@ public class ScoreKeeperManager {
             return getAskSpeechletResponse(speechText, speechText);
         }
 
-        ScoreKeeperGame game = scoreKeeperDao.getScoreKeeperGame(session);
+        // Update and save score
+        ScoreKeeperGame game = gameStore.addScoreForPlayer(session, playerName, score);
         if (game == null) {
-            return getTellSpeechletResponse("A game has not been started. Please say New Game to "
-                    + "start a new game before adding scores.");
-        }
+            // the game is only read to explain why the score could not be added
+            game = gameStore.getScoreKeeperGame(session);
+            if (game == null) {
+                return getTellSpeechletResponse("A game has not been started. Please say New Game "
+                        + "to start a new game before adding scores.");
+            }
 
-        if (game.getNumberOfPlayers() == 0) {
-            String speechText = "Sorry, no player has joined the game yet. What can I do for you?";
-            return getAskSpeechletResponse(speechText, speechText);
-        }
+            if (game.getNumberOfPlayers() == 0) {
+                String speechText =
+                        "Sorry, no player has joined the game yet. What can I do for you?";
+                return getAskSpeechletResponse(speechText, speechText);
+            }
 
-        // Update score
-        if (!game.addScoreForPlayer(playerName, score)) {
             String speechText = "Sorry, " + playerName + " has not joined the game. What else?";
             return getAskSpeechletResponse(speechText, speechText);
         }
 
-        // Save game
-        scoreKeeperDao.saveScoreKeeperGame(game);
-
         // Prepare speech text. If the game has less than 3 players, skip reading scores for each
         // player for brevity.
         String speechText = score + " for " + playerName + ". ";
         if (game.getNumberOfPlayers() > MAX_PLAYERS_FOR_SPEECH) {
             speechText += playerName + " has " + game.getScoreForPlayer(playerName) + " in total.";
         } else {
-            speechText += getAllScoresAsSpeechText(game.getAllScoresInDescndingOrder());
+            speechText += getAllScoresAsSpeechText(game);
         }
 
         return getTellSpeechletResponse(speechText);
     }
 
     /**
-     * Creates and returns response for the tell scores intent.
+     * Creates and returns response for the tell scores intent. Games with more players than fit on
+     * a leaderboard page are told from the top, one page at a time.
      *
      * @param intent
      *            {@link Intent} for this request
@@ -249,15 +339,19 @@ public class ScoreKeeperManager {
      */
     public SpeechletResponse getTellScoresIntentResponse(Intent intent, Session session) {
         // tells the scores in the leaderboard and send the result in card.
-        ScoreKeeperGame game = scoreKeeperDao.getScoreKeeperGame(session);
+        ScoreKeeperGame game = gameStore.getScoreKeeperGame(session);
 
         if (game == null || !game.hasPlayers()) {
             return getTellSpeechletResponse("Nobody has joined the game.");
         }
 
-        SortedMap<String, Long> sortedScores = game.getAllScoresInDescndingOrder();
-        String speechText = getAllScoresAsSpeechText(sortedScores);
-        Card leaderboardScoreCard = getLeaderboardScoreCard(sortedScores);
+        if (game.getLeaderboardSize() > LEADERBOARD_PAGE_SIZE) {
+            return getLeaderboardPageResponse(game, session, 0);
+        }
+
+        String speechText = getAllScoresAsSpeechText(game);
+        Card leaderboardScoreCard =
+                getLeaderboardScoreCard(game, "Leaderboard", 0, game.getLeaderboardSize());
 
         PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
         speech.setText(speechText);
@@ -265,6 +359,138 @@ public class ScoreKeeperManager {
         return SpeechletResponse.newTellResponse(speech, leaderboardScoreCard);
     }
 
+    /**
+     * Creates and returns response for the next intent, which continues telling the leaderboard
+     * with its next page.
+     *
+     * @param intent
+     *            {@link Intent} for this request
+     * @param session
+     *            {@link Session} for this request
+     * @return response for the next intent
+     */
+    public SpeechletResponse getNextIntentResponse(Intent intent, Session session) {
+        // session attributes are read back from JSON, so the page may be any kind of number
+        Object attribute = session.getAttribute(SESSION_LEADERBOARD_PAGE);
+        int page = attribute instanceof Number ? ((Number) attribute).intValue() : 0;
+        ScoreKeeperGame game = gameStore.getScoreKeeperGame(session);
+        if (page <= 0 || game == null
+                || page * LEADERBOARD_PAGE_SIZE >= game.getLeaderboardSize()) {
+            session.removeAttribute(SESSION_LEADERBOARD_PAGE);
+            return getTellSpeechletResponse("That's the whole leaderboard.");
+        }
+        return getLeaderboardPageResponse(game, session, page);
+    }
+
+    /**
+     * Creates and returns response for the tell top scores intent, which tells the players with
+     * the highest scores. At most a leaderboard page of players is told.
+     *
+     * @param intent
+     *            {@link Intent} for this request
+     * @param session
+     *            {@link Session} for this request
+     * @return response for the tell top scores intent
+     */
+    public SpeechletResponse getTellTopScoresIntentResponse(Intent intent, Session session) {
+        ScoreKeeperGame game = gameStore.getScoreKeeperGame(session);
+        if (game == null || !game.hasPlayers()) {
+            return getTellSpeechletResponse("Nobody has joined the game.");
+        }
+
+        int count = LEADERBOARD_PAGE_SIZE;
+        try {
+            count = Integer.parseInt(intent.getSlot(SLOT_TOP_NUMBER).getValue());
+        } catch (NumberFormatException e) {
+            // no number was heard, tell a page
+        }
+        count = Math.max(1, Math.min(Math.min(count, LEADERBOARD_PAGE_SIZE),
+                game.getLeaderboardSize()));
+
+        String speechText =
+                (count == 1 ? "The leader of " : "The top " + count + " of ")
+                        + game.getLeaderboardSize() + " players. "
+                        + getScoresAsSpeechText(game, 0, count);
+        PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+        speech.setText(speechText);
+
+        return SpeechletResponse.newTellResponse(speech,
+                getLeaderboardScoreCard(game, "Top " + count, 0, count));
+    }
+
+    /**
+     * Creates and returns response for the tell rank intent, which tells the place of a player on
+     * the leaderboard.
+     *
+     * @param intent
+     *            {@link Intent} for this request
+     * @param session
+     *            {@link Session} for this request
+     * @return response for the tell rank intent
+     */
+    public SpeechletResponse getTellRankIntentResponse(Intent intent, Session session) {
+        String playerName =
+                ScoreKeeperTextUtil.getPlayerName(intent.getSlot(SLOT_PLAYER_NAME).getValue());
+        if (playerName == null) {
+            String speechText = "Sorry, I did not hear the player name. Please say again?";
+            return getAskSpeechletResponse(speechText, speechText);
+        }
+
+        ScoreKeeperGame game = gameStore.getScoreKeeperGame(session);
+        if (game == null || !game.hasPlayers()) {
+            return getTellSpeechletResponse("Nobody has joined the game.");
+        }
+
+        int rank = game.getRankOfPlayer(playerName);
+        if (rank == 0) {
+            String speechText = "Sorry, " + playerName + " has not joined the game. What else?";
+            return getAskSpeechletResponse(speechText, speechText);
+        }
+
+        // the first player with the score is at the rank's position, any others follow it
+        long score = game.getLeaderboardScore(rank - 1);
+        boolean tied =
+                rank < game.getLeaderboardSize() && game.getLeaderboardScore(rank) == score;
+        String speechText =
+                playerName + (tied ? " is tied for " : " is in ")
+                        + ScoreKeeperTextUtil.getOrdinal(rank) + " place of "
+                        + game.getLeaderboardSize() + " players, with " + score
+                        + (score == 1 ? " point." : " points.");
+        return getTellSpeechletResponse(speechText);
+    }
+
+    /**
+     * Tells a page of the leaderboard, and asks whether to continue if more pages follow.
+     */
+    private SpeechletResponse getLeaderboardPageResponse(ScoreKeeperGame game, Session session,
+            int page) {
+        int size = game.getLeaderboardSize();
+        int from = page * LEADERBOARD_PAGE_SIZE;
+        int to = Math.min(size, from + LEADERBOARD_PAGE_SIZE);
+
+        String speechText =
+                (from == 0 ? "The top " + to + " of " + size + " players. " : "Players "
+                        + (from + 1) + " to " + to + ". ") + getScoresAsSpeechText(game, from, to);
+        Card card =
+                getLeaderboardScoreCard(game, "Leaderboard " + (from + 1) + " to " + to + " of "
+                        + size, from, to);
+        PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+
+        if (to == size) {
+            session.removeAttribute(SESSION_LEADERBOARD_PAGE);
+            speech.setText(speechText);
+            return SpeechletResponse.newTellResponse(speech, card);
+        }
+
+        session.setAttribute(SESSION_LEADERBOARD_PAGE, Integer.valueOf(page + 1));
+        speech.setText(speechText + " Say next to hear more.");
+        PlainTextOutputSpeech repromptSpeech = new PlainTextOutputSpeech();
+        repromptSpeech.setText("Say next to hear the next players, or ask for a player's rank.");
+        Reprompt reprompt = new Reprompt();
+        reprompt.setOutputSpeech(repromptSpeech);
+        return SpeechletResponse.newAskResponse(speech, reprompt, card);
+    }
+
     /**
      * Creates and returns response for the reset players intent.
      *
@@ -278,7 +504,7 @@ public class ScoreKeeperManager {
         // Remove all players
         ScoreKeeperGame game =
                 ScoreKeeperGame.newInstance(session, ScoreKeeperGameData.newInstance());
-        scoreKeeperDao.saveScoreKeeperGame(game);
+        gameStore.saveScoreKeeperGame(game);
 
         String speechText = "New game started without players. Who do you want to add first?";
         return getAskSpeechletResponse(speechText, speechText);
@@ -370,58 +596,74 @@ public class ScoreKeeperManager {
     }
 
     /**
-     * Converts a {@link Map} of scores into text for speech. The order of the entries in the text
-     * is determined by the order of entries in {@link Map#entrySet()}.
+     * Converts the scores of a game into text for speech, in the order of the leaderboard.
+     *
+     * @param game
+     *            the game
+     * @return a speech ready text containing scores
+     */
+    private String getAllScoresAsSpeechText(ScoreKeeperGame game) {
+        return getScoresAsSpeechText(game, 0, game.getLeaderboardSize());
+    }
+
+    /**
+     * Converts the scores of a range of leaderboard positions into text for speech.
      *
-     * @param scores
-     *            A {@link Map} of scores
+     * @param game
+     *            the game
+     * @param from
+     *            first position, inclusive
+     * @param to
+     *            last position, exclusive
      * @return a speech ready text containing scores
      */
-    private String getAllScoresAsSpeechText(Map<String, Long> scores) {
+    private String getScoresAsSpeechText(ScoreKeeperGame game, int from, int to) {
         StringBuilder speechText = new StringBuilder();
-        int index = 0;
-        for (Entry<String, Long> entry : scores.entrySet()) {
-            if (scores.size() > 1 && index == scores.size() - 1) {
+        for (int index = from; index < to; index++) {
+            if (to - from > 1 && index == to - 1) {
                 speechText.append(" and ");
             }
-            String singularOrPluralPoints = entry.getValue() == 1 ? " point, " : " points, ";
+            long score = game.getLeaderboardScore(index);
+            String singularOrPluralPoints = score == 1 ? " point, " : " points, ";
             speechText
-                    .append(entry.getKey())
+                    .append(game.getLeaderboardPlayer(index))
                     .append(" has ")
-                    .append(entry.getValue())
+                    .append(score)
                     .append(singularOrPluralPoints);
-            index++;
         }
 
         return speechText.toString();
     }
 
     /**
-     * Creates and returns a {@link Card} with a formatted text containing all scores in the game.
-     * The order of the entries in the text is determined by the order of entries in
-     * {@link Map#entrySet()}.
+     * Creates and returns a {@link Card} with a formatted text containing the scores of a range of
+     * leaderboard positions.
      *
-     * @param scores
-     *            A {@link Map} of scores
-     * @return leaderboard text containing all scores in the game
+     * @param game
+     *            the game
+     * @param title
+     *            title of the card
+     * @param from
+     *            first position, inclusive
+     * @param to
+     *            last position, exclusive
+     * @return leaderboard text containing the scores
      */
-    private Card getLeaderboardScoreCard(Map<String, Long> scores) {
+    private Card getLeaderboardScoreCard(ScoreKeeperGame game, String title, int from, int to) {
         StringBuilder leaderboard = new StringBuilder();
-        int index = 0;
-        for (Entry<String, Long> entry : scores.entrySet()) {
-            index++;
+        for (int index = from; index < to; index++) {
             leaderboard
                     .append("No. ")
-                    .append(index)
+                    .append(index + 1)
                     .append(" - ")
-                    .append(entry.getKey())
+                    .append(game.getLeaderboardPlayer(index))
                     .append(" : ")
-                    .append(entry.getValue())
+                    .append(game.getLeaderboardScore(index))
                     .append("\n");
         }
 
         SimpleCard card = new SimpleCard();
-        card.setTitle("Leaderboard");
+        card.setTitle(title);
         card.setContent(leaderboard.toString());
         return card;
     }
@@ -9,9 +9,15 @@
  */
 package scorekeeper;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import scorekeeper.storage.LocalScoreKeeperStorage;
+import scorekeeper.storage.ScoreKeeperDynamoDbClient;
+
 import com.amazon.speech.slu.Intent;
 import com.amazon.speech.speechlet.IntentRequest;
 import com.amazon.speech.speechlet.LaunchRequest;
@@ -70,6 +76,8 @@ import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 public class ScoreKeeperSpeechlet implements Speechlet {
     private static final Logger log = LoggerFactory.getLogger(ScoreKeeperSpeechlet.class);
 
+    private static final long DEFAULT_COMPACT_INTERVAL_MILLIS = 60000L;
+
     private AmazonDynamoDBClient amazonDynamoDBClient;
 
     private ScoreKeeperManager scoreKeeperManager;
@@ -106,7 +114,19 @@ public class ScoreKeeperSpeechlet implements Speechlet {
                 session.getSessionId());
         initializeComponents();
 
-        Intent intent = request.getIntent();
+        SpeechletResponse response = getIntentResponse(request.getIntent(), session);
+
+        // the game is cached between the requests of a session, so write it when the session ends
+        if (response.getShouldEndSession()) {
+            scoreKeeperManager.flushGame(session);
+        }
+        return response;
+    }
+
+    /**
+     * Dispatches an intent to the {@link ScoreKeeperManager}.
+     */
+    private SpeechletResponse getIntentResponse(Intent intent, Session session) {
         if ("NewGameIntent".equals(intent.getName())) {
             return scoreKeeperManager.getNewGameIntentResponse(session, skillContext);
 
@@ -119,6 +139,15 @@ public class ScoreKeeperSpeechlet implements Speechlet {
         } else if ("TellScoresIntent".equals(intent.getName())) {
             return scoreKeeperManager.getTellScoresIntentResponse(intent, session);
 
+        } else if ("TellTopScoresIntent".equals(intent.getName())) {
+            return scoreKeeperManager.getTellTopScoresIntentResponse(intent, session);
+
+        } else if ("TellRankIntent".equals(intent.getName())) {
+            return scoreKeeperManager.getTellRankIntentResponse(intent, session);
+
+        } else if ("AMAZON.NextIntent".equals(intent.getName())) {
+            return scoreKeeperManager.getNextIntentResponse(intent, session);
+
         } else if ("ResetPlayersIntent".equals(intent.getName())) {
             return scoreKeeperManager.getResetPlayersIntentResponse(intent, session);
 
@@ -141,17 +170,41 @@ public class ScoreKeeperSpeechlet implements Speechlet {
             throws SpeechletException {
         log.info("onSessionEnded requestId={}, sessionId={}", request.getRequestId(),
                 session.getSessionId());
-        // any cleanup logic goes here
+        if (scoreKeeperManager != null) {
+            scoreKeeperManager.flushGame(session);
+        }
     }
 
     /**
-     * Initializes the instance components if needed.
+     * Initializes the instance components if needed. Games are stored in DynamoDB unless the
+     * {@code scorekeeper.storage} system property is set to {@code local}.
      */
     private void initializeComponents() {
-        if (amazonDynamoDBClient == null) {
-            amazonDynamoDBClient = new AmazonDynamoDBClient();
-            scoreKeeperManager = new ScoreKeeperManager(amazonDynamoDBClient);
+        if (scoreKeeperManager == null) {
+            if ("local".equals(System.getProperty("scorekeeper.storage"))) {
+                scoreKeeperManager = new ScoreKeeperManager(createLocalStorage());
+            } else {
+                amazonDynamoDBClient = ScoreKeeperDynamoDbClient.createAmazonDynamoDBClient();
+                scoreKeeperManager = new ScoreKeeperManager(amazonDynamoDBClient);
+            }
             skillContext = new SkillContext();
         }
     }
+
+    /**
+     * Opens the local storage configured by the {@code scorekeeper.storage.dir},
+     * {@code scorekeeper.storage.sync} and {@code scorekeeper.storage.compactIntervalMillis}
+     * system properties.
+     */
+    private static LocalScoreKeeperStorage createLocalStorage() {
+        File directory =
+                new File(System.getProperty("scorekeeper.storage.dir", "scorekeeper-data"));
+        try {
+            return new LocalScoreKeeperStorage(directory, Boolean.parseBoolean(System
+                    .getProperty("scorekeeper.storage.sync", "false")), Long.getLong(
+                    "scorekeeper.storage.compactIntervalMillis", DEFAULT_COMPACT_INTERVAL_MILLIS));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open local storage in " + directory, e);
+        }
+    }
 }
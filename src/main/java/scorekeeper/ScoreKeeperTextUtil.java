@@ -64,4 +64,27 @@ public final class ScoreKeeperTextUtil {
 
         return cleanedName;
     }
+
+    /**
+     * Returns the ordinal of a number for speech, e.g. 1st, 2nd or 11th.
+     *
+     * @param number
+     * @return
+     */
+    public static String getOrdinal(int number) {
+        int lastTwoDigits = number % 100;
+        if (lastTwoDigits >= 11 && lastTwoDigits <= 13) {
+            return number + "th";
+        }
+        switch (number % 10) {
+            case 1:
+                return number + "st";
+            case 2:
+                return number + "nd";
+            case 3:
+                return number + "rd";
+            default:
+                return number + "th";
+        }
+    }
 }
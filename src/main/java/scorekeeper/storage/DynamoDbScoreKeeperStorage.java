@@ -0,0 +1,78 @@
+package scorekeeper.storage;
+
+import java.nio.ByteBuffer;
+
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+
+/**
+ * Stores game data as items of the ScoreKeeperUserData table in DynamoDB. Saves are conditional
+ * on the item's Version attribute.
+ * <p>
+ * Game data is written as JSON, or in the compact binary encoding if the storage is created for
+ * it, and items written in either format are read. An item is converted to the format of the
+ * storage on its next save.
+ */
+public class DynamoDbScoreKeeperStorage implements ScoreKeeperStorage {
+    private final ScoreKeeperDynamoDbClient dynamoDbClient;
+    private final boolean binaryData;
+
+    /**
+     * Creates a storage writing the format selected by the {@code scorekeeper.dynamodb.dataFormat}
+     * system property, {@code json} (the default) or {@code binary}.
+     */
+    public DynamoDbScoreKeeperStorage(final ScoreKeeperDynamoDbClient dynamoDbClient) {
+        this(dynamoDbClient, "binary".equals(System
+                .getProperty("scorekeeper.dynamodb.dataFormat")));
+    }
+
+    /**
+     * @param dynamoDbClient
+     *            the DynamoDB client
+     * @param binaryData
+     *            true to write game data in the compact binary encoding, false to write JSON
+     */
+    public DynamoDbScoreKeeperStorage(final ScoreKeeperDynamoDbClient dynamoDbClient,
+            final boolean binaryData) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.binaryData = binaryData;
+    }
+
+    @Override
+    public ScoreKeeperGameData load(final String customerId) {
+        ScoreKeeperUserDataItem item = new ScoreKeeperUserDataItem();
+        item.setCustomerId(customerId);
+
+        item = dynamoDbClient.loadItem(item);
+
+        if (item == null) {
+            return null;
+        }
+
+        ScoreKeeperGameData gameData =
+                item.getBinaryData() != null ? ScoreKeeperGameDataCodec.decode(item
+                        .getBinaryData()) : item.getGameData();
+        gameData.setVersion(item.getVersion() == null ? 0L : item.getVersion().longValue());
+        return gameData;
+    }
+
+    @Override
+    public long save(final String customerId, final ScoreKeeperGameData gameData,
+            final long expectedVersion) {
+        ScoreKeeperUserDataItem item = new ScoreKeeperUserDataItem();
+        item.setCustomerId(customerId);
+        // the attribute of the other format is null, which removes it from an existing item
+        if (binaryData) {
+            item.setBinaryData(ByteBuffer.wrap(ScoreKeeperGameDataCodec.encode(gameData)));
+        } else {
+            item.setGameData(gameData);
+        }
+        item.setVersion(expectedVersion == 0L ? null : Long.valueOf(expectedVersion));
+
+        try {
+            dynamoDbClient.saveItem(item);
+        } catch (ConditionalCheckFailedException e) {
+            return CONFLICT;
+        }
+        return item.getVersion().longValue();
+    }
+}
@@ -0,0 +1,202 @@
+package scorekeeper.storage;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * The players of a game ordered by decreasing score, and by name for equal scores, kept in two
+ * parallel arrays.
+ * <p>
+ * Reading the player at a position is an array access, and finding a player's position is a
+ * binary search, so leaderboard reads never allocate. A score change moves the player to its new
+ * position with a single array copy of the players in between, instead of sorting the whole game
+ * again.
+ */
+final class Leaderboard {
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private String[] names;
+    private long[] scores;
+    private int size;
+
+    private Leaderboard(final int capacity) {
+        names = new String[Math.max(capacity, DEFAULT_CAPACITY)];
+        scores = new long[names.length];
+    }
+
+    /**
+     * Creates the leaderboard of a game. Players without a score are ranked with zero points.
+     *
+     * @param players
+     *            the players of the game
+     * @param scores
+     *            the scores of the players
+     * @return the leaderboard
+     */
+    static Leaderboard of(final Collection<String> players, final Map<String, Long> scores) {
+        final String[] sortedNames = players.toArray(new String[players.size()]);
+        Arrays.sort(sortedNames, new Comparator<String>() {
+            @Override
+            public int compare(final String a, final String b) {
+                int longCompare = Long.compare(getScore(scores, b), getScore(scores, a));
+                return longCompare != 0 ? longCompare : a.compareTo(b);
+            }
+        });
+        Leaderboard leaderboard = new Leaderboard(sortedNames.length);
+        for (String name : sortedNames) {
+            // players added twice are ranked once
+            if (leaderboard.size == 0 || !name.equals(leaderboard.names[leaderboard.size - 1])) {
+                leaderboard.names[leaderboard.size] = name;
+                leaderboard.scores[leaderboard.size] = getScore(scores, name);
+                leaderboard.size++;
+            }
+        }
+        return leaderboard;
+    }
+
+    Leaderboard copy() {
+        Leaderboard copy = new Leaderboard(size);
+        System.arraycopy(names, 0, copy.names, 0, size);
+        System.arraycopy(scores, 0, copy.scores, 0, size);
+        copy.size = size;
+        return copy;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the name of the player at a position, 0 being the highest score.
+     */
+    String getName(final int position) {
+        checkPosition(position);
+        return names[position];
+    }
+
+    /**
+     * Returns the score of the player at a position, 0 being the highest score.
+     */
+    long getScore(final int position) {
+        checkPosition(position);
+        return scores[position];
+    }
+
+    /**
+     * Returns the position of a player with a given score.
+     *
+     * @return the position, or -1 if the player does not have that score
+     */
+    int indexOf(final String name, final long score) {
+        int position = search(name, score);
+        return position >= 0 ? position : -1;
+    }
+
+    /**
+     * Returns the number of players with a higher score, which is the position of the first player
+     * with the score, so players with equal scores share the same rank.
+     */
+    int countAbove(final long score) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (scores[middle] > score) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Adds a player that is not on the leaderboard.
+     */
+    void add(final String name, final long score) {
+        int position = search(name, score);
+        if (position >= 0) {
+            return;
+        }
+        position = -position - 1;
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        System.arraycopy(names, position, names, position + 1, size - position);
+        System.arraycopy(scores, position, scores, position + 1, size - position);
+        names[position] = name;
+        scores[position] = score;
+        size++;
+    }
+
+    /**
+     * Changes the score of a player, moving it to its new position.
+     *
+     * @param name
+     *            the player's name
+     * @param oldScore
+     *            the player's current score
+     * @param newScore
+     *            the player's new score
+     */
+    void update(final String name, final long oldScore, final long newScore) {
+        if (oldScore == newScore) {
+            return;
+        }
+        int from = search(name, oldScore);
+        if (from < 0) {
+            throw new IllegalArgumentException(name + " does not have " + oldScore + " points");
+        }
+        int to = -search(name, newScore) - 1;
+        if (to > from) {
+            // the player itself is still counted before its new position
+            to--;
+            System.arraycopy(names, from + 1, names, from, to - from);
+            System.arraycopy(scores, from + 1, scores, from, to - from);
+        } else if (to < from) {
+            System.arraycopy(names, to, names, to + 1, from - to);
+            System.arraycopy(scores, to, scores, to + 1, from - to);
+        }
+        names[to] = name;
+        scores[to] = newScore;
+    }
+
+    /**
+     * Binary search by decreasing score and increasing name.
+     *
+     * @return the position of the player, or (-(insertion point) - 1) if not found
+     */
+    private int search(final String name, final long score) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compare = Long.compare(score, scores[middle]);
+            if (compare == 0) {
+                compare = names[middle].compareTo(name);
+            }
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private void checkPosition(final int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position " + position + ", size " + size);
+        }
+    }
+
+    private static long getScore(final Map<String, Long> scores, final String name) {
+        Long score = scores.get(name);
+        return score == null ? 0L : score.longValue();
+    }
+}
@@ -0,0 +1,361 @@
+package scorekeeper.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores game data on local disk, for deployments without DynamoDB.
+ * <p>
+ * Every save appends a record to a log file and updates an in-memory index of the latest game
+ * data of each customer, so reads never touch the disk and writes are a single sequential append.
+ * The log is replayed into the index when the storage is opened; a record that was only partly
+ * written, e.g. because the process was killed, is detected by its checksum and cut off.
+ * <p>
+ * Records replaced by later saves are garbage. The log is compacted in the background once the
+ * garbage outweighs the live records, by writing the live records to a new file and renaming it
+ * over the log.
+ * <p>
+ * Log format: a header of magic number and format version, then records of
+ *
+ * <pre>
+ * int length, int CRC32 of the payload, payload
+ * </pre>
+ *
+ * where the payload is the customer ID, the version, the player names and the scores. A save is
+ * only appended if the customer's latest record has the expected version.
+ */
+public class LocalScoreKeeperStorage implements ScoreKeeperStorage {
+    private static final Logger log = LoggerFactory.getLogger(LocalScoreKeeperStorage.class);
+
+    static final String LOG_FILE = "scorekeeper.log";
+
+    private static final int MAGIC = 0x534b4c47;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final long MIN_COMPACTION_BYTES = 64 * 1024;
+
+    private final File file;
+    private final boolean sync;
+    private final ConcurrentMap<String, Record> index = new ConcurrentHashMap<String, Record>();
+    private final ScheduledExecutorService compactor;
+
+    // guarded by this
+    private FileChannel channel;
+    private long fileBytes;
+    private long liveBytes;
+
+    /**
+     * Opens the log in a directory, creating it if needed, and replays it into memory.
+     *
+     * @param directory
+     *            directory of the log file
+     * @param sync
+     *            true to force every save to the disk before returning, false to leave it to the
+     *            operating system
+     * @param compactIntervalMillis
+     *            time between checks whether the log needs compaction, or 0 to never compact
+     * @throws IOException
+     *             if the log cannot be opened or is not a ScoreKeeper log
+     */
+    public LocalScoreKeeperStorage(final File directory, final boolean sync,
+            final long compactIntervalMillis) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        this.file = new File(directory, LOG_FILE);
+        this.sync = sync;
+        open();
+        log.info("Loaded {} games from {}", index.size(), file);
+
+        if (compactIntervalMillis > 0) {
+            compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "scorekeeper-compact");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            compactor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact(false);
+                    } catch (IOException e) {
+                        log.warn("Unable to compact " + file, e);
+                    }
+                }
+            }, compactIntervalMillis, compactIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            compactor = null;
+        }
+    }
+
+    @Override
+    public ScoreKeeperGameData load(final String customerId) {
+        Record record = index.get(customerId);
+        return record == null ? null : record.gameData.copy();
+    }
+
+    @Override
+    public long save(final String customerId, final ScoreKeeperGameData gameData,
+            final long expectedVersion) {
+        ScoreKeeperGameData stored = gameData.copy();
+        stored.setVersion(expectedVersion + 1);
+        Record record = new Record(stored, encode(customerId, stored));
+        synchronized (this) {
+            Record previous = index.get(customerId);
+            if ((previous == null ? 0L : previous.gameData.getVersion()) != expectedVersion) {
+                return CONFLICT;
+            }
+            try {
+                append(record.bytes);
+                if (sync) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to write game of customer " + customerId,
+                        e);
+            }
+            index.put(customerId, record);
+            liveBytes += record.bytes.length - (previous == null ? 0 : previous.bytes.length);
+        }
+        return stored.getVersion();
+    }
+
+    /**
+     * Returns the number of customers with game data.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Rewrites the log with only the latest record of each customer.
+     *
+     * @param force
+     *            true to compact even if the log holds little garbage
+     * @throws IOException
+     *             if the compacted log cannot be written; the old log is then kept
+     */
+    public synchronized void compact(final boolean force) throws IOException {
+        long garbageBytes = fileBytes - HEADER_SIZE - liveBytes;
+        if (!force && (garbageBytes < liveBytes || garbageBytes < MIN_COMPACTION_BYTES)) {
+            return;
+        }
+        File compacted = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(compacted, "rw")) {
+            out.setLength(0);
+            FileChannel compactedChannel = out.getChannel();
+            compactedChannel.write(getHeader());
+            for (Record record : index.values()) {
+                compactedChannel.write(ByteBuffer.wrap(record.bytes));
+            }
+            compactedChannel.force(true);
+        }
+        long previousBytes = fileBytes;
+        channel.close();
+        try {
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            fileBytes = HEADER_SIZE + liveBytes;
+        } finally {
+            // appends to the compacted log, or to the old one if it could not be replaced
+            channel = openChannel();
+            channel.position(fileBytes);
+        }
+        log.info("Compacted {} from {} to {} bytes", file, previousBytes, fileBytes);
+    }
+
+    /**
+     * Stops compacting and closes the log.
+     */
+    public synchronized void close() throws IOException {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        channel.close();
+    }
+
+    /**
+     * Opens the log and replays it into the index, truncating a partly written last record. Only
+     * called before the storage is used, since the index is rebuilt.
+     */
+    private synchronized void open() throws IOException {
+        FileChannel opened = openChannel();
+        try {
+            long size = opened.size();
+            if (size == 0) {
+                opened.write(getHeader());
+                size = HEADER_SIZE;
+            }
+            long validBytes = replay(opened, size);
+            if (validBytes < size) {
+                log.warn("Truncating {} bytes of incomplete records from {}", size - validBytes,
+                        file);
+                opened.truncate(validBytes);
+            }
+            opened.position(validBytes);
+            channel = opened;
+            fileBytes = validBytes;
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the records of the log into the index.
+     *
+     * @return the length of the log up to the end of the last complete record
+     */
+    private long replay(final FileChannel in, final long size) throws IOException {
+        in.position(0);
+        DataInputStream data =
+                new DataInputStream(new BufferedInputStream(Channels.newInputStream(in)));
+        if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION) {
+            throw new IOException(file + " is not a ScoreKeeper log");
+        }
+        long position = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (size - position >= RECORD_HEADER_SIZE) {
+            int length = data.readInt();
+            int checksum = data.readInt();
+            if (length < 0 || length > size - position - RECORD_HEADER_SIZE) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            data.readFully(payload);
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+            String customerId = record.readUTF();
+            ScoreKeeperGameData gameData = decode(record);
+
+            byte[] bytes = toRecord(payload);
+            Record previous = index.put(customerId, new Record(gameData, bytes));
+            liveBytes += bytes.length - (previous == null ? 0 : previous.bytes.length);
+            position += bytes.length;
+        }
+        return position;
+    }
+
+    @SuppressWarnings("resource")
+    private FileChannel openChannel() throws IOException {
+        return new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    private void append(final byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        fileBytes += bytes.length;
+    }
+
+    private static ByteBuffer getHeader() {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+        return header;
+    }
+
+    private static byte[] encode(final String customerId, final ScoreKeeperGameData gameData) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF(customerId);
+            out.writeLong(gameData.getVersion());
+            out.writeInt(gameData.getPlayers().size());
+            for (String playerName : gameData.getPlayers()) {
+                out.writeUTF(playerName);
+            }
+            out.writeInt(gameData.getScores().size());
+            for (Map.Entry<String, Long> score : gameData.getScores().entrySet()) {
+                out.writeUTF(score.getKey());
+                out.writeLong(score.getValue());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode game data", e);
+        }
+        return toRecord(bytes.toByteArray());
+    }
+
+    private static ScoreKeeperGameData decode(final DataInputStream in) throws IOException {
+        long version = in.readLong();
+        int playerCount = in.readInt();
+        if (playerCount < 0) {
+            throw new EOFException("Invalid player count " + playerCount);
+        }
+        List<String> players = new ArrayList<String>(playerCount);
+        for (int i = 0; i < playerCount; i++) {
+            players.add(in.readUTF());
+        }
+        int scoreCount = in.readInt();
+        if (scoreCount < 0) {
+            throw new EOFException("Invalid score count " + scoreCount);
+        }
+        Map<String, Long> scores = new HashMap<String, Long>();
+        for (int i = 0; i < scoreCount; i++) {
+            scores.put(in.readUTF(), Long.valueOf(in.readLong()));
+        }
+        ScoreKeeperGameData gameData = new ScoreKeeperGameData();
+        gameData.setPlayers(players);
+        gameData.setScores(scores);
+        gameData.setVersion(version);
+        return gameData;
+    }
+
+    /**
+     * Prefixes a payload with its length and checksum.
+     */
+    private static byte[] toRecord(final byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        return record.array();
+    }
+
+    /**
+     * The latest game data of a customer, with its encoded log record.
+     */
+    private static final class Record {
+        private final ScoreKeeperGameData gameData;
+        private final byte[] bytes;
+
+        private Record(final ScoreKeeperGameData gameData, final byte[] bytes) {
+            this.gameData = gameData;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -1,15 +1,37 @@
 package scorekeeper.storage;
 
+import java.util.concurrent.ThreadLocalRandom;
+
 import com.amazon.speech.speechlet.Session;
 
 /**
- * Contains the methods to interact with the persistence layer for ScoreKeeper in DynamoDB.
+ * Contains the methods to interact with the persistence layer for ScoreKeeper, by default in
+ * DynamoDB.
+ * <p>
+ * Saves use optimistic concurrency: a game is only saved if the stored version is still the one
+ * it was read from. If another device saved the game in the meantime, the stored game is read
+ * again, the changes are merged into it and the save is retried, so concurrent score updates are
+ * never lost.
  */
 public class ScoreKeeperDao {
-    private final ScoreKeeperDynamoDbClient dynamoDbClient;
+    /**
+     * Number of times a save is attempted before giving up on conflicting updates.
+     */
+    private static final int MAX_SAVE_ATTEMPTS = 5;
+
+    /**
+     * Upper bound of the random delay before the first retry, doubled for every further retry.
+     */
+    private static final long RETRY_DELAY_MILLIS = 10L;
+
+    private final ScoreKeeperStorage storage;
 
     public ScoreKeeperDao(ScoreKeeperDynamoDbClient dynamoDbClient) {
-        this.dynamoDbClient = dynamoDbClient;
+        this(new DynamoDbScoreKeeperStorage(dynamoDbClient));
+    }
+
+    public ScoreKeeperDao(ScoreKeeperStorage storage) {
+        this.storage = storage;
     }
 
     /**
@@ -21,28 +43,88 @@ public class ScoreKeeperDao {
      * @return
      */
     public ScoreKeeperGame getScoreKeeperGame(Session session) {
-        ScoreKeeperUserDataItem item = new ScoreKeeperUserDataItem();
-        item.setCustomerId(session.getUser().getUserId());
+        ScoreKeeperGameData gameData = loadGameData(session.getUser().getUserId());
 
-        item = dynamoDbClient.loadItem(item);
-
-        if (item == null) {
+        if (gameData == null) {
             return null;
         }
 
-        return ScoreKeeperGame.newInstance(session, item.getGameData());
+        return ScoreKeeperGame.fromStoredData(session, gameData);
     }
 
     /**
-     * Saves the {@link ScoreKeeperGame} into the database.
+     * Saves the {@link ScoreKeeperGame} into the database. If the game was changed concurrently,
+     * the game is updated with the merged data that was saved.
      * 
      * @param game
      */
     public void saveScoreKeeperGame(ScoreKeeperGame game) {
-        ScoreKeeperUserDataItem item = new ScoreKeeperUserDataItem();
-        item.setCustomerId(game.getSession().getUser().getUserId());
-        item.setGameData(game.getGameData());
+        ScoreKeeperGameData saved =
+                saveGameData(game.getSession().getUser().getUserId(), game.getBaseData(),
+                        game.getGameData());
+        game.setStoredData(saved);
+    }
 
-        dynamoDbClient.saveItem(item);
+    /**
+     * Reads the game data of a customer.
+     *
+     * @param customerId
+     *            the customer's user ID
+     * @return the game data, or null if the item could not be found in the database
+     */
+    ScoreKeeperGameData loadGameData(String customerId) {
+        return storage.load(customerId);
+    }
+
+    /**
+     * Saves the game data of a customer, merging it with any game data saved since it was read.
+     *
+     * @param customerId
+     *            the customer's user ID
+     * @param baseData
+     *            the stored game data the changes were made to, or null to replace the stored game
+     *            data without merging
+     * @param gameData
+     *            the game data to save
+     * @return the game data that was saved, with its new version, sharing the players and scores
+     *         of the game data passed in or of the merged game data
+     * @throws IllegalStateException
+     *             if the game kept being changed concurrently
+     */
+    ScoreKeeperGameData saveGameData(String customerId, ScoreKeeperGameData baseData,
+            ScoreKeeperGameData gameData) {
+        ScoreKeeperGameData expected = baseData;
+        ScoreKeeperGameData data = gameData;
+        for (int attempt = 1; attempt <= MAX_SAVE_ATTEMPTS; attempt++) {
+            long version = storage.save(customerId, data, expected == null ? 0L : expected
+                    .getVersion());
+            if (version != ScoreKeeperStorage.CONFLICT) {
+                return data.withVersion(version);
+            }
+            if (attempt == MAX_SAVE_ATTEMPTS) {
+                break;
+            }
+            backOff(attempt);
+            ScoreKeeperGameData stored = storage.load(customerId);
+            if (baseData != null && expected != null && stored != null) {
+                data = ScoreKeeperGameData.merge(expected, data, stored);
+            }
+            expected = stored;
+        }
+        throw new IllegalStateException("Unable to save game of customer " + customerId + " after "
+                + MAX_SAVE_ATTEMPTS + " conflicting updates");
+    }
+
+    /**
+     * Waits a random time before a retry, so that writers conflicting with each other do not keep
+     * retrying in lockstep.
+     */
+    private static void backOff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(RETRY_DELAY_MILLIS << (attempt - 1)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while saving game", e);
+        }
     }
 }
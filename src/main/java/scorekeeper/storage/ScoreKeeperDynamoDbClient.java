@@ -1,16 +1,75 @@
 package scorekeeper.storage;
 
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig.ConsistentReads;
 
 /**
  * Client for DynamoDB persistance layer for the Score Keeper skill.
+ * <p>
+ * The {@link DynamoDBMapper} is thread-safe and caches the reflection metadata of the mapped
+ * classes, so a single instance is created per client and shared by all requests. Reads are
+ * strongly consistent, so that a game re-read after a conflicting save has the latest version.
  */
 public class ScoreKeeperDynamoDbClient {
+    private static final String PREFIX = "scorekeeper.dynamodb.";
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 16;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 2000;
+    private static final int DEFAULT_MAX_ERROR_RETRY = 3;
+
     private final AmazonDynamoDBClient dynamoDBClient;
+    private final DynamoDBMapper mapper;
 
     public ScoreKeeperDynamoDbClient(final AmazonDynamoDBClient dynamoDBClient) {
         this.dynamoDBClient = dynamoDBClient;
+        this.mapper =
+                new DynamoDBMapper(dynamoDBClient, new DynamoDBMapperConfig(
+                        ConsistentReads.CONSISTENT));
+    }
+
+    /**
+     * Creates an {@link AmazonDynamoDBClient} whose connection pool, timeouts and retries are read
+     * from system properties:
+     * <ul>
+     * <li>{@code scorekeeper.dynamodb.maxConnections} - size of the connection pool (default
+     * 16)</li>
+     * <li>{@code scorekeeper.dynamodb.connectTimeoutMillis} - TCP connect timeout (default
+     * 1000)</li>
+     * <li>{@code scorekeeper.dynamodb.socketTimeoutMillis} - socket read timeout, which also bounds
+     * each attempt of a request (default 2000)</li>
+     * <li>{@code scorekeeper.dynamodb.maxErrorRetry} - retries of throttled or failed requests,
+     * with the DynamoDB back-off (default 3)</li>
+     * </ul>
+     * The client is thread-safe and should be created once and reused, so connections stay warm
+     * between requests.
+     *
+     * @return a new client
+     */
+    public static AmazonDynamoDBClient createAmazonDynamoDBClient() {
+        int maxErrorRetry = Integer.getInteger(PREFIX + "maxErrorRetry", DEFAULT_MAX_ERROR_RETRY);
+        RetryPolicy retryPolicy =
+                PredefinedRetryPolicies
+                        .getDynamoDBDefaultRetryPolicyWithCustomMaxRetries(maxErrorRetry);
+        ClientConfiguration configuration =
+                new ClientConfiguration()
+                        .withMaxConnections(
+                                Integer.getInteger(PREFIX + "maxConnections",
+                                        DEFAULT_MAX_CONNECTIONS))
+                        .withConnectionTimeout(
+                                Integer.getInteger(PREFIX + "connectTimeoutMillis",
+                                        DEFAULT_CONNECT_TIMEOUT_MILLIS))
+                        .withSocketTimeout(
+                                Integer.getInteger(PREFIX + "socketTimeoutMillis",
+                                        DEFAULT_SOCKET_TIMEOUT_MILLIS))
+                        .withMaxErrorRetry(maxErrorRetry)
+                        .withRetryPolicy(retryPolicy);
+        return new AmazonDynamoDBClient(configuration);
     }
 
     /**
@@ -21,27 +80,19 @@ public class ScoreKeeperDynamoDbClient {
      * @return
      */
     public ScoreKeeperUserDataItem loadItem(final ScoreKeeperUserDataItem tableItem) {
-        DynamoDBMapper mapper = createDynamoDBMapper();
         ScoreKeeperUserDataItem item = mapper.load(tableItem);
         return item;
     }
 
     /**
-     * Stores an item to DynamoDB.
+     * Stores an item to DynamoDB. If the item has a version, the save is conditional on it and
+     * the item's version is incremented.
      * 
      * @param tableItem
+     * @throws com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException
+     *             if the stored item has another version
      */
     public void saveItem(final ScoreKeeperUserDataItem tableItem) {
-        DynamoDBMapper mapper = createDynamoDBMapper();
         mapper.save(tableItem);
     }
-
-    /**
-     * Creates a {@link DynamoDBMapper} using the default configurations.
-     * 
-     * @return
-     */
-    private DynamoDBMapper createDynamoDBMapper() {
-        return new DynamoDBMapper(dynamoDBClient);
-    }
 }
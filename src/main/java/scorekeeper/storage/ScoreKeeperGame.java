@@ -1,19 +1,19 @@
 package scorekeeper.storage;
 
-import java.io.Serializable;
-import java.util.Comparator;
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
-
 import com.amazon.speech.speechlet.Session;
 
 /**
  * Represents a score keeper game.
+ * <p>
+ * A game read from a store shares the stored game data, which is not changed, and only copies it
+ * before its first change. So intents that only read a game do not copy it.
  */
 public final class ScoreKeeperGame {
     private Session session;
     private ScoreKeeperGameData gameData;
+    private ScoreKeeperGameData baseData;
+    // true while gameData is shared with the store and must be copied before it is changed
+    private boolean shared;
 
     private ScoreKeeperGame() {
     }
@@ -37,6 +37,18 @@ public final class ScoreKeeperGame {
         return game;
     }
 
+    /**
+     * Creates a game of stored game data, which is shared and copied before the game is first
+     * changed. The stored data is kept as the base of the changes, so that they can be merged with
+     * concurrent changes when the game is saved.
+     */
+    static ScoreKeeperGame fromStoredData(Session session, ScoreKeeperGameData storedData) {
+        ScoreKeeperGame game = new ScoreKeeperGame();
+        game.setSession(session);
+        game.setStoredData(storedData);
+        return game;
+    }
+
     protected void setSession(Session session) {
         this.session = session;
     }
@@ -51,6 +63,40 @@ public final class ScoreKeeperGame {
 
     protected void setGameData(ScoreKeeperGameData gameData) {
         this.gameData = gameData;
+        this.shared = false;
+    }
+
+    /**
+     * Replaces the game data with stored game data, which becomes the base of further changes and
+     * is copied before the first of them.
+     */
+    void setStoredData(ScoreKeeperGameData storedData) {
+        this.gameData = storedData;
+        this.baseData = storedData;
+        this.shared = true;
+    }
+
+    /**
+     * Returns the game data to change, copying it first if it is shared.
+     */
+    private ScoreKeeperGameData getWritableData() {
+        if (shared) {
+            gameData = gameData.copy();
+            shared = false;
+        }
+        return gameData;
+    }
+
+    /**
+     * Returns the stored game data this game was read from, or null for a new game that replaces
+     * any stored game.
+     */
+    ScoreKeeperGameData getBaseData() {
+        return baseData;
+    }
+
+    void setBaseData(ScoreKeeperGameData baseData) {
+        this.baseData = baseData;
     }
 
     /**
@@ -72,13 +118,23 @@ public final class ScoreKeeperGame {
     }
 
     /**
-     * Add a player to the game.
+     * Add a player to the game. A player that has already joined is not added again.
      * 
      * @param playerName
      *            Name of the player
+     * @return true if the player was added, false if the player had already joined
      */
-    public void addPlayer(String playerName) {
-        gameData.getPlayers().add(playerName);
+    public boolean addPlayer(String playerName) {
+        if (hasPlayer(playerName)) {
+            return false;
+        }
+        ScoreKeeperGameData data = getWritableData();
+        Leaderboard leaderboard = data.getLeaderboard();
+        if (!data.addPlayer(playerName)) {
+            return false;
+        }
+        leaderboard.add(playerName, getScore(playerName));
+        return true;
     }
 
     /**
@@ -89,7 +145,7 @@ public final class ScoreKeeperGame {
      * @return true if the player exists in the game, false otherwise
      */
     public boolean hasPlayer(String playerName) {
-        return gameData.getPlayers().contains(playerName);
+        return gameData.hasPlayer(playerName);
     }
 
     /**
@@ -127,12 +183,11 @@ public final class ScoreKeeperGame {
             return false;
         }
 
-        long currentScore = 0L;
-        if (gameData.getScores().containsKey(playerName)) {
-            currentScore = gameData.getScores().get(playerName);
-        }
-
-        gameData.getScores().put(playerName, Long.valueOf(currentScore + score));
+        ScoreKeeperGameData data = getWritableData();
+        Leaderboard leaderboard = data.getLeaderboard();
+        long currentScore = getScore(playerName);
+        data.getScores().put(playerName, Long.valueOf(currentScore + score));
+        leaderboard.update(playerName, currentScore, currentScore + score);
         return true;
     }
 
@@ -140,51 +195,64 @@ public final class ScoreKeeperGame {
      * Resets the scores for all players to zero.
      */
     public void resetScores() {
-        for (String playerName : gameData.getPlayers()) {
-            gameData.getScores().put(playerName, Long.valueOf(0L));
+        ScoreKeeperGameData data = getWritableData();
+        for (String playerName : data.getPlayers()) {
+            data.getScores().put(playerName, Long.valueOf(0L));
         }
+        data.invalidateLeaderboard();
     }
 
     /**
-     * Returns a {@link SortedMap} of player names mapped to scores with the map sorted in
-     * decreasing order of scores.
+     * Returns the number of players on the leaderboard. Players are listed once even if they were
+     * added more than once.
      * 
-     * @return a {@link SortedMap} of player names mapped to scores with the map sorted in
-     *         decreasing order of scores
+     * @return the number of players on the leaderboard
      */
-    public SortedMap<String, Long> getAllScoresInDescndingOrder() {
-		Map<String, Long> scores = gameData.getScores();
-
-		for (String playerName : gameData.getPlayers()) {
-			if (!gameData.getScores().containsKey(playerName)) {
-				scores.put(playerName, Long.valueOf(0L));
-			}
-		}
+    public int getLeaderboardSize() {
+        return gameData.getLeaderboard().size();
+    }
 
-        SortedMap<String, Long> sortedScores =
-                new TreeMap<String, Long>(new ScoreComparator(scores));
-        sortedScores.putAll(gameData.getScores());
-        return sortedScores;
+    /**
+     * Returns the name of the player at a position of the leaderboard, which lists the players in
+     * decreasing order of scores, and players with equal scores by name.
+     * 
+     * @param position
+     *            position on the leaderboard, 0 for the highest score
+     * @return name of the player
+     */
+    public String getLeaderboardPlayer(int position) {
+        return gameData.getLeaderboard().getName(position);
     }
 
     /**
-     * This comparator takes a map of player name and scores and uses that to sort a collection of
-     * player names in the descending order of their scores.
-     * <p>
-     * Note: this comparator imposes orderings that are inconsistent with equals.
+     * Returns the score of the player at a position of the leaderboard. Players without a score
+     * have zero points.
+     * 
+     * @param position
+     *            position on the leaderboard, 0 for the highest score
+     * @return score of the player
      */
-    private static final class ScoreComparator implements Comparator<String>, Serializable {
-        private static final long serialVersionUID = 7849926209990327190L;
-        private final Map<String, Long> baseMap;
+    public long getLeaderboardScore(int position) {
+        return gameData.getLeaderboard().getScore(position);
+    }
 
-        private ScoreComparator(Map<String, Long> baseMap) {
-            this.baseMap = baseMap;
+    /**
+     * Returns the rank of a player on the leaderboard. Players with equal scores share the same
+     * rank, which is one more than the number of players with a higher score.
+     * 
+     * @param playerName
+     *            Name of the player
+     * @return rank of the player, 1 for the highest score, or 0 if the player has not joined
+     */
+    public int getRankOfPlayer(String playerName) {
+        if (!hasPlayer(playerName)) {
+            return 0;
         }
+        return gameData.getLeaderboard().countAbove(getScore(playerName)) + 1;
+    }
 
-        @Override
-        public int compare(String a, String b) {
-            int longCompare = Long.compare(baseMap.get(b), baseMap.get(a));
-            return longCompare != 0 ? longCompare : a.compareTo(b);
-        }
+    private long getScore(String playerName) {
+        Long score = gameData.getScores().get(playerName);
+        return score == null ? 0L : score.longValue();
     }
 }
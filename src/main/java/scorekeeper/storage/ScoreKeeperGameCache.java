@@ -0,0 +1,263 @@
+package scorekeeper.storage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazon.speech.speechlet.Session;
+
+/**
+ * A read-through, write-behind cache of games in front of {@link ScoreKeeperDao}, keyed by
+ * customer.
+ * <p>
+ * A game is read from the database the first time a customer is seen and served from memory
+ * afterwards. Saved games are only marked dirty, so a burst of score updates collapses into a
+ * single database write. Dirty games are written when {@link #flush(Session)} is called at the end
+ * of a session, when the write delay has passed, or as soon as the number of dirty games reaches
+ * the configured threshold. With a write delay of zero every save is written through immediately.
+ * <p>
+ * Callers share the cached game data, which is never changed; a game copies it before its first
+ * change, so concurrent requests for the same customer do not modify each other's data, and
+ * intents that only read a game copy nothing. Their changes are merged when they save. Writes go
+ * through the optimistic concurrency of the DAO, so changes saved by other servers are merged too.
+ * Clean games that have not been used for the idle timeout are evicted.
+ */
+public class ScoreKeeperGameCache implements ScoreKeeperGameStore {
+    private static final Logger log = LoggerFactory.getLogger(ScoreKeeperGameCache.class);
+
+    private final ScoreKeeperDao dao;
+    private final long writeDelayMillis;
+    private final int maxDirtyGames;
+    private final long idleTimeoutMillis;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicInteger dirtyGames = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * @param dao
+     *            the DAO games are read from and written to
+     * @param writeDelayMillis
+     *            time after which a saved game is written, or 0 to write every save immediately
+     * @param maxDirtyGames
+     *            number of unwritten games at which all of them are written
+     * @param idleTimeoutMillis
+     *            time after which a game that has not been used is evicted
+     */
+    public ScoreKeeperGameCache(final ScoreKeeperDao dao, final long writeDelayMillis,
+            final int maxDirtyGames, final long idleTimeoutMillis) {
+        this.dao = dao;
+        this.writeDelayMillis = writeDelayMillis;
+        this.maxDirtyGames = maxDirtyGames;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "scorekeeper-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long sweepMillis = writeDelayMillis > 0 ? writeDelayMillis : idleTimeoutMillis;
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushAll(System.currentTimeMillis() - writeDelayMillis);
+            }
+        }, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the {@link ScoreKeeperGame} of the customer of the session, reading it from the
+     * database if it is not cached. The game shares the cached game data until it is changed.
+     */
+    @Override
+    public ScoreKeeperGame getScoreKeeperGame(final Session session) {
+        String customerId = session.getUser().getUserId();
+        Entry entry = entries.get(customerId);
+        if (entry == null) {
+            ScoreKeeperGameData gameData = dao.loadGameData(customerId);
+            if (gameData != null) {
+                // ranked once here, the copies made on change keep their leaderboard up to date
+                gameData.share();
+            }
+            entry = new Entry(gameData);
+            Entry previous = entries.putIfAbsent(customerId, entry);
+            if (previous != null) {
+                entry = previous;
+            }
+        }
+        synchronized (entry) {
+            entry.lastAccess = System.currentTimeMillis();
+            if (entry.gameData == null) {
+                return null;
+            }
+            return ScoreKeeperGame.fromStoredData(session, entry.gameData);
+        }
+    }
+
+    /**
+     * Saves the {@link ScoreKeeperGame} into the cache and schedules it to be written. If the
+     * cached game was saved by another request since this game was read, the changes of both are
+     * merged, and the game is updated with the merged data.
+     */
+    @Override
+    public void saveScoreKeeperGame(final ScoreKeeperGame game) {
+        String customerId = game.getSession().getUser().getUserId();
+        // the game's own data is handed over, the game shares it from now on
+        ScoreKeeperGameData gameData = game.getGameData();
+        long now = System.currentTimeMillis();
+        while (true) {
+            Entry entry = entries.get(customerId);
+            if (entry == null) {
+                entry = new Entry(null);
+                Entry previous = entries.putIfAbsent(customerId, entry);
+                if (previous != null) {
+                    entry = previous;
+                }
+            }
+            synchronized (entry) {
+                if (entry.evicted) {
+                    continue;
+                }
+                ScoreKeeperGameData baseData = game.getBaseData();
+                if (baseData != null && entry.gameData != null && baseData != entry.gameData) {
+                    gameData = ScoreKeeperGameData.merge(baseData, gameData, entry.gameData);
+                }
+                if (writeDelayMillis <= 0) {
+                    gameData = dao.saveGameData(customerId, entry.storedData, gameData);
+                    entry.storedData = gameData;
+                }
+                entry.gameData = gameData.share();
+                game.setStoredData(gameData);
+                entry.lastAccess = now;
+                if (writeDelayMillis > 0 && entry.dirtySince == 0L) {
+                    entry.dirtySince = now;
+                    if (dirtyGames.incrementAndGet() >= maxDirtyGames) {
+                        scheduleFlush();
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public ScoreKeeperGame addScoreForPlayer(final Session session, final String playerName,
+            final long score) {
+        ScoreKeeperGame game = getScoreKeeperGame(session);
+        if (game == null || !game.addScoreForPlayer(playerName, score)) {
+            return null;
+        }
+        saveScoreKeeperGame(game);
+        return game;
+    }
+
+    @Override
+    public void flush(final Session session) {
+        Entry entry = entries.get(session.getUser().getUserId());
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            if (entry.dirtySince != 0L) {
+                write(session.getUser().getUserId(), entry);
+            }
+        }
+    }
+
+    /**
+     * Writes all games with unwritten changes, e.g. before the JVM exits, and stops the
+     * background writer.
+     */
+    public void shutdown() {
+        flusher.shutdownNow();
+        flushAll(Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the number of games with unwritten changes.
+     */
+    public int getDirtyGames() {
+        return dirtyGames.get();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushScheduled.set(false);
+                    flushAll(Long.MAX_VALUE);
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the games that became dirty before the given time, and evicts clean games that have
+     * been idle for longer than the idle timeout.
+     */
+    private void flushAll(final long dirtyBefore) {
+        long idleBefore = System.currentTimeMillis() - idleTimeoutMillis;
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            synchronized (entry) {
+                if (entry.dirtySince != 0L && entry.dirtySince <= dirtyBefore) {
+                    write(mapEntry.getKey(), entry);
+                }
+                if (entry.dirtySince == 0L && entry.lastAccess < idleBefore) {
+                    entry.evicted = true;
+                    entries.remove(mapEntry.getKey(), entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a dirty game while holding its entry's lock, so writes of the same game are never
+     * reordered. A failed write leaves the game dirty, to be retried by the next flush.
+     */
+    private void write(final String customerId, final Entry entry) {
+        try {
+            ScoreKeeperGameData saved =
+                    dao.saveGameData(customerId, entry.storedData, entry.gameData);
+            entry.storedData = saved;
+            entry.gameData = saved.share();
+        } catch (RuntimeException e) {
+            log.warn("Unable to save game of customer " + customerId + ", will retry", e);
+            return;
+        }
+        entry.dirtySince = 0L;
+        dirtyGames.decrementAndGet();
+    }
+
+    /**
+     * A cached game. The game data is replaced, never modified, so it can be written without
+     * copying and is shared by the games handed out; all fields are guarded by the entry's lock.
+     */
+    private static final class Entry {
+        /** latest game data, including unwritten changes. */
+        private ScoreKeeperGameData gameData;
+        /** game data as last read from or written to the database, with its version. */
+        private ScoreKeeperGameData storedData;
+        private long dirtySince;
+        private long lastAccess;
+        private boolean evicted;
+
+        private Entry(final ScoreKeeperGameData gameData) {
+            this.gameData = gameData;
+            this.storedData = gameData;
+            this.lastAccess = System.currentTimeMillis();
+        }
+    }
+}
@@ -2,8 +2,10 @@ package scorekeeper.storage;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Contains player and score data to represent a score keeper game.
@@ -11,6 +13,9 @@ import java.util.Map;
 public class ScoreKeeperGameData {
     private List<String> players;
     private Map<String, Long> scores;
+    private long version;
+    private Leaderboard leaderboard;
+    private Set<String> playerSet;
 
     public ScoreKeeperGameData() {
         // public no-arg constructor required for DynamoDBMapper marshalling
@@ -29,12 +34,117 @@ public class ScoreKeeperGameData {
         return newInstance;
     }
 
+    /**
+     * Returns a copy of this game data that can be modified independently.
+     *
+     * @return a copy of the players and scores
+     */
+    ScoreKeeperGameData copy() {
+        ScoreKeeperGameData copy = new ScoreKeeperGameData();
+        copy.setPlayers(new ArrayList<String>(players));
+        copy.setScores(new HashMap<String, Long>(scores));
+        copy.setVersion(version);
+        if (leaderboard != null) {
+            copy.leaderboard = leaderboard.copy();
+        }
+        if (playerSet != null) {
+            copy.playerSet = new HashSet<String>(playerSet);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns this game data with another version. The players, scores, leaderboard and player
+     * set are shared, not copied, so the result is only for game data that is not changed any
+     * more, see {@link #share()}.
+     *
+     * @param version
+     *            the version of the stored game
+     * @return game data sharing this data's players and scores
+     */
+    ScoreKeeperGameData withVersion(long version) {
+        ScoreKeeperGameData saved = new ScoreKeeperGameData();
+        saved.players = players;
+        saved.scores = scores;
+        saved.leaderboard = leaderboard;
+        saved.playerSet = playerSet;
+        saved.version = version;
+        return saved;
+    }
+
+    /**
+     * Builds the leaderboard and the player set now rather than on first use, so that the game
+     * data can be read by several threads. Shared game data must not be changed afterwards;
+     * {@link ScoreKeeperGame} copies it before its first change.
+     *
+     * @return this game data
+     */
+    ScoreKeeperGameData share() {
+        getLeaderboard();
+        getPlayerSet();
+        return this;
+    }
+
+    /**
+     * Merges the changes made to a game with the changes another writer has saved since. Players
+     * added or removed locally are added to or removed from the saved players, and the points a
+     * player gained or lost locally are added to the saved score, so no update of either writer is
+     * lost.
+     *
+     * @param base
+     *            the game data the local changes were made to
+     * @param local
+     *            the game data with the local changes
+     * @param saved
+     *            the game data saved by the other writer
+     * @return the merged game data, with the version of the saved game data
+     */
+    static ScoreKeeperGameData merge(final ScoreKeeperGameData base,
+            final ScoreKeeperGameData local, final ScoreKeeperGameData saved) {
+        Set<String> basePlayers = new HashSet<String>(base.getPlayers());
+        Set<String> localPlayers = new HashSet<String>(local.getPlayers());
+        List<String> players = new ArrayList<String>();
+        for (String playerName : saved.getPlayers()) {
+            if (localPlayers.contains(playerName) || !basePlayers.contains(playerName)) {
+                players.add(playerName);
+            }
+        }
+        Set<String> mergedPlayers = new HashSet<String>(players);
+        for (String playerName : local.getPlayers()) {
+            if (!basePlayers.contains(playerName) && mergedPlayers.add(playerName)) {
+                players.add(playerName);
+            }
+        }
+
+        Map<String, Long> scores = new HashMap<String, Long>();
+        for (String playerName : players) {
+            if (saved.getScores().containsKey(playerName)
+                    || local.getScores().containsKey(playerName)) {
+                long delta = getScore(local, playerName) - getScore(base, playerName);
+                scores.put(playerName, Long.valueOf(getScore(saved, playerName) + delta));
+            }
+        }
+
+        ScoreKeeperGameData merged = new ScoreKeeperGameData();
+        merged.setPlayers(players);
+        merged.setScores(scores);
+        merged.setVersion(saved.getVersion());
+        return merged;
+    }
+
+    private static long getScore(final ScoreKeeperGameData gameData, final String playerName) {
+        Long score = gameData.getScores().get(playerName);
+        return score == null ? 0L : score.longValue();
+    }
+
     public List<String> getPlayers() {
         return players;
     }
 
     public void setPlayers(List<String> players) {
         this.players = players;
+        this.leaderboard = null;
+        this.playerSet = null;
     }
 
     public Map<String, Long> getScores() {
@@ -43,6 +153,65 @@ public class ScoreKeeperGameData {
 
     public void setScores(Map<String, Long> scores) {
         this.scores = scores;
+        this.leaderboard = null;
+    }
+
+    /**
+     * Returns the players ordered by score, built on first use and then kept up to date by
+     * {@link ScoreKeeperGame} as players and scores change. Not marshalled.
+     */
+    Leaderboard getLeaderboard() {
+        if (leaderboard == null) {
+            leaderboard = Leaderboard.of(players, scores);
+        }
+        return leaderboard;
+    }
+
+    /**
+     * Returns true if a player has joined the game. Membership is looked up in a hash set of the
+     * players, built on first use, instead of searching the list of players. Not marshalled.
+     */
+    boolean hasPlayer(String playerName) {
+        return getPlayerSet().contains(playerName);
+    }
+
+    /**
+     * Adds a player to the list of players unless it has already joined.
+     *
+     * @return true if the player was added
+     */
+    boolean addPlayer(String playerName) {
+        if (!getPlayerSet().add(playerName)) {
+            return false;
+        }
+        players.add(playerName);
+        return true;
+    }
+
+    private Set<String> getPlayerSet() {
+        if (playerSet == null) {
+            playerSet = new HashSet<String>(players);
+        }
+        return playerSet;
+    }
+
+    /**
+     * Discards the leaderboard after a change that is not applied to it incrementally.
+     */
+    void invalidateLeaderboard() {
+        leaderboard = null;
+    }
+
+    /**
+     * Returns the version of the stored game this data was read from or written to, 0 if it has
+     * not been stored. Not marshalled, each storage keeps the version itself.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    void setVersion(long version) {
+        this.version = version;
     }
 
     @Override
@@ -0,0 +1,163 @@
+package scorekeeper.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of {@link ScoreKeeperGameData}, a fraction of the size of its JSON.
+ * <p>
+ * Every player name is written once, in a name table, and players and scores refer to names by
+ * their index in the table. Counts and indexes are unsigned varints, and scores are zigzag
+ * varints, so small numbers take a single byte:
+ *
+ * <pre>
+ * byte format version
+ * varint name count, names as varint UTF-8 length and bytes
+ * varint player count, player name indexes
+ * varint score count, pairs of name index and zigzag score
+ * </pre>
+ *
+ * The version is not encoded, each storage keeps it itself.
+ */
+final class ScoreKeeperGameDataCodec {
+    private static final byte FORMAT_VERSION = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ScoreKeeperGameDataCodec() {
+    }
+
+    /**
+     * Encodes game data.
+     *
+     * @param gameData
+     *            the game data
+     * @return the encoded bytes
+     */
+    static byte[] encode(final ScoreKeeperGameData gameData) {
+        Map<String, Integer> names = new LinkedHashMap<String, Integer>();
+        for (String playerName : gameData.getPlayers()) {
+            addName(names, playerName);
+        }
+        for (String playerName : gameData.getScores().keySet()) {
+            addName(names, playerName);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + names.size() * 12);
+        out.write(FORMAT_VERSION);
+        writeVarint(out, names.size());
+        for (String name : names.keySet()) {
+            byte[] bytes = name.getBytes(UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+        writeVarint(out, gameData.getPlayers().size());
+        for (String playerName : gameData.getPlayers()) {
+            writeVarint(out, names.get(playerName).intValue());
+        }
+        writeVarint(out, gameData.getScores().size());
+        for (Map.Entry<String, Long> score : gameData.getScores().entrySet()) {
+            writeVarint(out, names.get(score.getKey()).intValue());
+            long value = score.getValue().longValue();
+            writeVarint(out, (value << 1) ^ (value >> 63));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes game data.
+     *
+     * @param bytes
+     *            the encoded bytes, from the buffer's position to its limit
+     * @return the game data
+     * @throws IllegalArgumentException
+     *             if the bytes are not encoded game data
+     */
+    static ScoreKeeperGameData decode(final ByteBuffer bytes) {
+        ByteBuffer in = bytes.duplicate();
+        try {
+            byte formatVersion = in.get();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unknown game data format " + formatVersion);
+            }
+            String[] names = new String[readCount(in)];
+            for (int i = 0; i < names.length; i++) {
+                byte[] name = new byte[readCount(in)];
+                in.get(name);
+                names[i] = new String(name, UTF_8);
+            }
+            int playerCount = readCount(in);
+            List<String> players = new ArrayList<String>(playerCount);
+            for (int i = 0; i < playerCount; i++) {
+                players.add(readName(in, names));
+            }
+            int scoreCount = readCount(in);
+            Map<String, Long> scores = new HashMap<String, Long>(scoreCount * 4 / 3 + 1);
+            for (int i = 0; i < scoreCount; i++) {
+                String name = readName(in, names);
+                long value = readVarint(in);
+                scores.put(name, Long.valueOf((value >>> 1) ^ -(value & 1)));
+            }
+
+            ScoreKeeperGameData gameData = new ScoreKeeperGameData();
+            gameData.setPlayers(players);
+            gameData.setScores(scores);
+            return gameData;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated game data", e);
+        }
+    }
+
+    private static void addName(final Map<String, Integer> names, final String name) {
+        if (!names.containsKey(name)) {
+            names.put(name, Integer.valueOf(names.size()));
+        }
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out, final long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) (remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    private static long readVarint(final ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in game data");
+    }
+
+    /**
+     * Reads a count, which cannot be larger than the remaining bytes since every counted element
+     * takes at least one byte.
+     */
+    private static int readCount(final ByteBuffer in) {
+        long count = readVarint(in);
+        if (count > in.remaining()) {
+            throw new IllegalArgumentException("Invalid count " + count + " in game data");
+        }
+        return (int) count;
+    }
+
+    private static String readName(final ByteBuffer in, final String[] names) {
+        long index = readVarint(in);
+        if (index >= names.length) {
+            throw new IllegalArgumentException("Invalid name index " + index + " in game data");
+        }
+        return names[(int) index];
+    }
+}
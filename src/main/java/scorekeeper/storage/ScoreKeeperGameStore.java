@@ -0,0 +1,48 @@
+package scorekeeper.storage;
+
+import com.amazon.speech.speechlet.Session;
+
+/**
+ * Stores the {@link ScoreKeeperGame} of each customer.
+ */
+public interface ScoreKeeperGameStore {
+    /**
+     * Returns the game of the customer of the session.
+     *
+     * @param session
+     *            the session of the customer
+     * @return the game, or null if the customer has no game
+     */
+    ScoreKeeperGame getScoreKeeperGame(Session session);
+
+    /**
+     * Saves a game, replacing the customer's previous game.
+     *
+     * @param game
+     *            the game to save
+     */
+    void saveScoreKeeperGame(ScoreKeeperGame game);
+
+    /**
+     * Adds the score passed to it to the current score of a player and saves the game.
+     *
+     * @param session
+     *            the session of the customer
+     * @param playerName
+     *            name of the player
+     * @param score
+     *            score to be added
+     * @return the updated game, or null if the customer has no game or the player has not joined
+     *         it
+     */
+    ScoreKeeperGame addScoreForPlayer(Session session, String playerName, long score);
+
+    /**
+     * Writes any unsaved changes to the game of the customer of the session. Called when a
+     * session ends.
+     *
+     * @param session
+     *            the session of the customer
+     */
+    void flush(Session session);
+}
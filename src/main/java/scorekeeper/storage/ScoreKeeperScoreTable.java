@@ -0,0 +1,270 @@
+package scorekeeper.storage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.amazon.speech.speechlet.Session;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+
+/**
+ * Stores games in a DynamoDB table with one number attribute per player, named
+ * {@code Score.<player name>}, next to the {@code CustomerId} hash key.
+ * <p>
+ * Adding points is a single {@code UpdateItem} with an atomic {@code ADD} of the points to the
+ * player's attribute, so the game is not read first, only the changed number is written, and
+ * concurrent updates from several devices are never lost. The update returns the new item, which
+ * has all the scores needed for the response.
+ * <p>
+ * Other changes to a game are saved as an {@code UpdateItem} of only the attributes that changed
+ * since the game was read, never as a whole item: a new player is set to zero unless it already
+ * exists, and a score that was reset is only set if it still has the value that was read. If
+ * another device changed such a score in the meantime, the item is read again, the changes are
+ * merged into it as in {@link ScoreKeeperDao} and the update is retried.
+ */
+public class ScoreKeeperScoreTable implements ScoreKeeperGameStore {
+    private static final String CUSTOMER_ID = "CustomerId";
+    private static final String SCORE_PREFIX = "Score.";
+
+    /**
+     * Number of times a save is attempted before giving up on conflicting updates.
+     */
+    private static final int MAX_SAVE_ATTEMPTS = 5;
+
+    private final AmazonDynamoDBClient dynamoDBClient;
+    private final String tableName;
+
+    /**
+     * @param dynamoDBClient
+     *            the DynamoDB client
+     * @param tableName
+     *            name of a table with a String hash key named CustomerId
+     */
+    public ScoreKeeperScoreTable(final AmazonDynamoDBClient dynamoDBClient,
+            final String tableName) {
+        this.dynamoDBClient = dynamoDBClient;
+        this.tableName = tableName;
+    }
+
+    @Override
+    public ScoreKeeperGame getScoreKeeperGame(final Session session) {
+        ScoreKeeperGameData gameData = loadGameData(session.getUser().getUserId());
+        if (gameData == null) {
+            return null;
+        }
+        return ScoreKeeperGame.fromStoredData(session, gameData);
+    }
+
+    /**
+     * Writes the changes made to the game since it was read. Players without a score are stored
+     * with zero points, so that they can be found by {@link #addScoreForPlayer}. A game without
+     * base data replaces the stored game: players that are not in it are removed.
+     *
+     * @throws IllegalStateException
+     *             if the game kept being changed concurrently
+     */
+    @Override
+    public void saveScoreKeeperGame(final ScoreKeeperGame game) {
+        String customerId = game.getSession().getUser().getUserId();
+        boolean replace = game.getBaseData() == null;
+        ScoreKeeperGameData base = game.getBaseData();
+        ScoreKeeperGameData data = game.getGameData();
+        for (int attempt = 1; attempt <= MAX_SAVE_ATTEMPTS; attempt++) {
+            if (replace) {
+                base = loadGameData(customerId);
+                if (base == null) {
+                    base = ScoreKeeperGameData.newInstance();
+                }
+            }
+            UpdateItemRequest request = toUpdate(customerId, base, data);
+            if (request == null) {
+                return;
+            }
+            try {
+                ScoreKeeperGameData saved =
+                        toGameData(dynamoDBClient.updateItem(request).getAttributes());
+                game.setStoredData(saved);
+                return;
+            } catch (ConditionalCheckFailedException e) {
+                // a score that is set was changed by another device since it was read
+                if (!replace) {
+                    ScoreKeeperGameData stored = loadGameData(customerId);
+                    if (stored == null) {
+                        stored = ScoreKeeperGameData.newInstance();
+                    }
+                    data = ScoreKeeperGameData.merge(base, data, stored);
+                    base = stored;
+                }
+            }
+        }
+        throw new IllegalStateException("Unable to save game of customer " + customerId + " after "
+                + MAX_SAVE_ATTEMPTS + " conflicting updates");
+    }
+
+    @Override
+    public ScoreKeeperGame addScoreForPlayer(final Session session, final String playerName,
+            final long score) {
+        UpdateItemRequest request =
+                new UpdateItemRequest()
+                        .withTableName(tableName)
+                        .withKey(getKey(session.getUser().getUserId()))
+                        .withUpdateExpression("ADD #score :score")
+                        .withConditionExpression("attribute_exists(#score)")
+                        .withExpressionAttributeNames(
+                                Collections.singletonMap("#score", SCORE_PREFIX + playerName))
+                        .withExpressionAttributeValues(
+                                Collections.singletonMap(":score",
+                                        new AttributeValue().withN(String.valueOf(score))))
+                        .withReturnValues(ReturnValue.ALL_NEW);
+        try {
+            ScoreKeeperGameData gameData =
+                    toGameData(dynamoDBClient.updateItem(request).getAttributes());
+            return ScoreKeeperGame.fromStoredData(session, gameData);
+        } catch (ConditionalCheckFailedException e) {
+            // there is no game, or the player has not joined it
+            return null;
+        }
+    }
+
+    /**
+     * Does nothing, every change is written immediately.
+     */
+    @Override
+    public void flush(final Session session) {
+    }
+
+    private ScoreKeeperGameData loadGameData(final String customerId) {
+        Map<String, AttributeValue> item =
+                dynamoDBClient.getItem(
+                        new GetItemRequest()
+                                .withTableName(tableName)
+                                .withKey(getKey(customerId))
+                                .withConsistentRead(true)).getItem();
+        return item == null ? null : toGameData(item);
+    }
+
+    /**
+     * Builds the update of the attributes that differ between the base and the changed game data.
+     * A score that is set is conditioned on its base value; a player that is added keeps any score
+     * it already has.
+     *
+     * @return the update, or null if nothing changed
+     */
+    private UpdateItemRequest toUpdate(final String customerId, final ScoreKeeperGameData base,
+            final ScoreKeeperGameData data) {
+        Map<String, String> names = new HashMap<String, String>();
+        Map<String, AttributeValue> values = new HashMap<String, AttributeValue>();
+        List<String> sets = new ArrayList<String>();
+        List<String> removes = new ArrayList<String>();
+        List<String> conditions = new ArrayList<String>();
+
+        Set<String> players = new HashSet<String>(data.getPlayers());
+        for (String playerName : base.getPlayers()) {
+            if (!players.contains(playerName)) {
+                String name = "#p" + names.size();
+                names.put(name, SCORE_PREFIX + playerName);
+                removes.add(name);
+            }
+        }
+        Set<String> basePlayers = new HashSet<String>(base.getPlayers());
+        for (String playerName : data.getPlayers()) {
+            long score = getScore(data, playerName);
+            boolean added = !basePlayers.contains(playerName);
+            if (!added && score == getScore(base, playerName)) {
+                continue;
+            }
+            int index = names.size();
+            String name = "#p" + index;
+            names.put(name, SCORE_PREFIX + playerName);
+            if (added && score == 0L) {
+                values.put(":zero", new AttributeValue().withN("0"));
+                sets.add(name + " = if_not_exists(" + name + ", :zero)");
+                continue;
+            }
+            String value = ":v" + index;
+            values.put(value, new AttributeValue().withN(String.valueOf(score)));
+            sets.add(name + " = " + value);
+            if (added) {
+                conditions.add("attribute_not_exists(" + name + ")");
+            } else {
+                String expected = ":b" + index;
+                values.put(expected,
+                        new AttributeValue().withN(String.valueOf(getScore(base, playerName))));
+                conditions.add(name + " = " + expected);
+            }
+        }
+        if (sets.isEmpty() && removes.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder update = new StringBuilder();
+        if (!sets.isEmpty()) {
+            update.append("SET ").append(join(sets, ", "));
+        }
+        if (!removes.isEmpty()) {
+            update.append(update.length() == 0 ? "" : " ").append("REMOVE ")
+                    .append(join(removes, ", "));
+        }
+        UpdateItemRequest request =
+                new UpdateItemRequest()
+                        .withTableName(tableName)
+                        .withKey(getKey(customerId))
+                        .withUpdateExpression(update.toString())
+                        .withExpressionAttributeNames(names)
+                        .withReturnValues(ReturnValue.ALL_NEW);
+        if (!values.isEmpty()) {
+            request.setExpressionAttributeValues(values);
+        }
+        if (!conditions.isEmpty()) {
+            request.setConditionExpression(join(conditions, " AND "));
+        }
+        return request;
+    }
+
+    private static long getScore(final ScoreKeeperGameData gameData, final String playerName) {
+        Long score = gameData.getScores().get(playerName);
+        return score == null ? 0L : score.longValue();
+    }
+
+    private static String join(final List<String> parts, final String separator) {
+        StringBuilder joined = new StringBuilder();
+        for (String part : parts) {
+            if (joined.length() > 0) {
+                joined.append(separator);
+            }
+            joined.append(part);
+        }
+        return joined.toString();
+    }
+
+    private static Map<String, AttributeValue> getKey(final String customerId) {
+        Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+        key.put(CUSTOMER_ID, new AttributeValue().withS(customerId));
+        return key;
+    }
+
+    private static ScoreKeeperGameData toGameData(final Map<String, AttributeValue> item) {
+        List<String> players = new ArrayList<String>();
+        Map<String, Long> scores = new HashMap<String, Long>();
+        for (Map.Entry<String, AttributeValue> attribute : item.entrySet()) {
+            if (attribute.getKey().startsWith(SCORE_PREFIX)) {
+                String playerName = attribute.getKey().substring(SCORE_PREFIX.length());
+                players.add(playerName);
+                scores.put(playerName, Long.valueOf(attribute.getValue().getN()));
+            }
+        }
+        ScoreKeeperGameData gameData = new ScoreKeeperGameData();
+        gameData.setPlayers(players);
+        gameData.setScores(scores);
+        return gameData;
+    }
+}
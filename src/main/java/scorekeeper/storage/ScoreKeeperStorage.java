@@ -0,0 +1,36 @@
+package scorekeeper.storage;
+
+/**
+ * A storage backend that keeps the {@link ScoreKeeperGameData} of each customer. Implementations
+ * must be thread-safe.
+ */
+public interface ScoreKeeperStorage {
+    /**
+     * Returned by {@link #save} when the stored version differs from the expected one.
+     */
+    long CONFLICT = -1L;
+
+    /**
+     * Reads the game data of a customer, with its version.
+     *
+     * @param customerId
+     *            the customer's user ID
+     * @return the game data, or null if the customer has none
+     */
+    ScoreKeeperGameData load(String customerId);
+
+    /**
+     * Saves the game data of a customer, replacing the previous data, if the stored version is
+     * still the expected one.
+     *
+     * @param customerId
+     *            the customer's user ID
+     * @param gameData
+     *            the game data
+     * @param expectedVersion
+     *            version of the stored game data, 0 if none is expected to be stored
+     * @return the new version of the stored game data, or {@link #CONFLICT} if another version
+     *         was stored
+     */
+    long save(String customerId, ScoreKeeperGameData gameData, long expectedVersion);
+}
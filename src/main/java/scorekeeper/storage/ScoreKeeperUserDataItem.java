@@ -1,17 +1,23 @@
 package scorekeeper.storage;
 
+import java.nio.ByteBuffer;
+
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMarshaller;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMarshalling;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBVersionAttribute;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Model representing an item of the ScoreKeeperUserData table in DynamoDB for the ScoreKeeper
  * skill.
+ * <p>
+ * The game data is stored either as JSON in the "Data" attribute, or in the compact binary
+ * encoding of {@link ScoreKeeperGameDataCodec} in the "BinaryData" attribute. An item has only
+ * one of them.
  */
 @DynamoDBTable(tableName = "ScoreKeeperUserData")
 public class ScoreKeeperUserDataItem {
@@ -21,6 +27,10 @@ public class ScoreKeeperUserDataItem {
 
     private ScoreKeeperGameData gameData;
 
+    private ByteBuffer binaryData;
+
+    private Long version;
+
     @DynamoDBHashKey(attributeName = "CustomerId")
     public String getCustomerId() {
         return customerId;
@@ -40,6 +50,32 @@ public class ScoreKeeperUserDataItem {
         this.gameData = gameData;
     }
 
+    /**
+     * Game data in the compact binary encoding, or null if the item stores JSON game data.
+     */
+    @DynamoDBAttribute(attributeName = "BinaryData")
+    public ByteBuffer getBinaryData() {
+        return binaryData;
+    }
+
+    public void setBinaryData(ByteBuffer binaryData) {
+        this.binaryData = binaryData;
+    }
+
+    /**
+     * Version of the item, incremented by the DynamoDBMapper on every save. A save fails if the
+     * item was saved with another version in the meantime. Null for an item that has not been
+     * saved.
+     */
+    @DynamoDBVersionAttribute(attributeName = "Version")
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     /**
      * A {@link DynamoDBMarshaller} that provides marshalling and unmarshalling logic for
      * {@link ScoreKeeperGameData} values so that they can be persisted in the database as String.
@@ -59,8 +95,7 @@ public class ScoreKeeperUserDataItem {
         @Override
         public ScoreKeeperGameData unmarshall(Class<ScoreKeeperGameData> clazz, String value) {
             try {
-                return OBJECT_MAPPER.readValue(value, new TypeReference<ScoreKeeperGameData>() {
-                });
+                return OBJECT_MAPPER.readValue(value, clazz);
             } catch (Exception e) {
                 throw new IllegalStateException("Unable to unmarshall game data value", e);
             }
@@ -0,0 +1,337 @@
+package speechformat;
+
+import java.text.ParseException;
+import java.util.TimeZone;
+
+/**
+ * Formats dates and times for speech output. Dates are handled as days since 1970-01-01 and times
+ * as hour and minute, so no {@code Calendar}, {@code Date} or {@code SimpleDateFormat} is created
+ * per request. Every spoken time of day is formatted once into a lookup table, so formatting a
+ * time does not allocate at all.
+ * <p>
+ * Instances are immutable and can be shared by all threads.
+ */
+public final class SpeechDateFormatter {
+    private static final int HOURS_PER_DAY = 24;
+    private static final int MINUTES_PER_HOUR = 60;
+    private static final int MINUTES_PER_DAY = HOURS_PER_DAY * MINUTES_PER_HOUR;
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final int DAYS_PER_WEEK = 7;
+    private static final int EPOCH_DAY_OF_WEEK = 4; // 1970-01-01 was a Thursday
+
+    /**
+     * Hours at which the morning, afternoon and evening end.
+     */
+    private static final int MORNING_THRESHOLD = 12;
+    private static final int AFTERNOON_THRESHOLD = 17;
+    private static final int EVENING_THRESHOLD = 20;
+
+    private static final int NOON_HOUR = 12;
+    private static final int TWO_DIGIT_THRESHOLD = 10;
+
+    private static final String[] DAYS_OF_MONTH = new String[31];
+    private static final String[] MONTHS = {
+            "January", "February", "March", "April", "May", "June", "July", "August",
+            "September", "October", "November", "December"
+    };
+    private static final String[] DAYS_OF_WEEK = {
+            "Sunday", "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday"
+    };
+    private static final String[] PERIODS_OF_DAY = new String[HOURS_PER_DAY];
+    private static final String[] TIMES = new String[MINUTES_PER_DAY];
+    private static final String[] TIMES_AM_PM = new String[MINUTES_PER_DAY];
+
+    static {
+        for (int day = 1; day <= DAYS_OF_MONTH.length; day++) {
+            DAYS_OF_MONTH[day - 1] = day + getOrdinalSuffix(day);
+        }
+        for (int hour = 0; hour < HOURS_PER_DAY; hour++) {
+            if (hour < MORNING_THRESHOLD) {
+                PERIODS_OF_DAY[hour] = " in the morning";
+            } else if (hour < AFTERNOON_THRESHOLD) {
+                PERIODS_OF_DAY[hour] = " in the afternoon";
+            } else if (hour < EVENING_THRESHOLD) {
+                PERIODS_OF_DAY[hour] = " in the evening";
+            } else {
+                PERIODS_OF_DAY[hour] = " at night";
+            }
+        }
+        for (int minuteOfDay = 0; minuteOfDay < MINUTES_PER_DAY; minuteOfDay++) {
+            int hour = minuteOfDay / MINUTES_PER_HOUR;
+            int minute = minuteOfDay % MINUTES_PER_HOUR;
+            int clockHour = hour % NOON_HOUR == 0 ? NOON_HOUR : hour % NOON_HOUR;
+            String clockTime =
+                    clockHour + (minute < TWO_DIGIT_THRESHOLD ? ":0" : ":") + minute;
+            TIMES[minuteOfDay] = clockTime + PERIODS_OF_DAY[hour];
+            TIMES_AM_PM[minuteOfDay] = clockTime + (hour < NOON_HOUR ? " am" : " pm");
+        }
+    }
+
+    private static final SpeechDateFormatter DEFAULT = new SpeechDateFormatter(TimeZone
+            .getDefault());
+
+    private final TimeZone timeZone;
+
+    /**
+     * @param timeZone
+     *            time zone used to determine the current date; it must not be modified afterwards
+     */
+    public SpeechDateFormatter(final TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Returns a formatter for the server's default time zone.
+     *
+     * @return the shared formatter
+     */
+    public static SpeechDateFormatter getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the current date in this formatter's time zone.
+     *
+     * @return days since 1970-01-01
+     */
+    public long today() {
+        return toEpochDay(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the date of an instant in this formatter's time zone.
+     *
+     * @param millis
+     *            milliseconds since the epoch
+     * @return days since 1970-01-01
+     */
+    public long toEpochDay(final long millis) {
+        return floorDiv(millis + timeZone.getOffset(millis), MILLIS_PER_DAY);
+    }
+
+    /**
+     * Returns the minute of the day of an instant in this formatter's time zone.
+     *
+     * @param millis
+     *            milliseconds since the epoch
+     * @return minutes since midnight
+     */
+    public int toMinuteOfDay(final long millis) {
+        long localMillis = millis + timeZone.getOffset(millis);
+        return (int) ((localMillis - floorDiv(localMillis, MILLIS_PER_DAY) * MILLIS_PER_DAY)
+                / (MILLIS_PER_DAY / MINUTES_PER_DAY));
+    }
+
+    /**
+     * Returns a speech formatted date, without the time. If the year is the same as the current
+     * year, it is omitted. Example: 'Friday June 12th', 'Sunday 6/5/2016'
+     *
+     * @param epochDay
+     *            days since 1970-01-01
+     * @return the formatted date
+     */
+    public String formatDate(final long epochDay) {
+        int year = getYear(epochDay);
+        int month = getMonth(epochDay);
+        int day = getDayOfMonth(epochDay);
+        String dayOfWeek = DAYS_OF_WEEK[getDayOfWeek(epochDay)];
+        if (year == getYear(today())) {
+            return dayOfWeek + ' ' + MONTHS[month - 1] + ' ' + DAYS_OF_MONTH[day - 1];
+        }
+        return dayOfWeek + ' ' + month + '/' + day + '/' + year;
+    }
+
+    /**
+     * Returns a speech formatted time based on the period of the day. E.g. '12:35 in the
+     * afternoon'. The result is taken from a table and not allocated.
+     *
+     * @param hourOfDay
+     *            hour of the day, 0-23
+     * @param minute
+     *            minute of the hour, 0-59
+     * @return the formatted time
+     */
+    public String formatTime(final int hourOfDay, final int minute) {
+        return TIMES[hourOfDay * MINUTES_PER_HOUR + minute];
+    }
+
+    /**
+     * Returns a speech formatted time based on am/pm. E.g. '12:35 pm'. The result is taken from a
+     * table and not allocated.
+     *
+     * @param hourOfDay
+     *            hour of the day, 0-23
+     * @param minute
+     *            minute of the hour, 0-59
+     * @return the formatted time
+     */
+    public String formatTimeAmPm(final int hourOfDay, final int minute) {
+        return TIMES_AM_PM[hourOfDay * MINUTES_PER_HOUR + minute];
+    }
+
+    /**
+     * Formats a date as yyyyMMdd.
+     *
+     * @param epochDay
+     *            days since 1970-01-01
+     * @return the formatted date
+     */
+    public static String formatBasicDate(final long epochDay) {
+        int month = getMonth(epochDay);
+        int day = getDayOfMonth(epochDay);
+        StringBuilder builder = new StringBuilder(8);
+        builder.append(getYear(epochDay));
+        if (month < TWO_DIGIT_THRESHOLD) {
+            builder.append('0');
+        }
+        builder.append(month);
+        if (day < TWO_DIGIT_THRESHOLD) {
+            builder.append('0');
+        }
+        return builder.append(day).toString();
+    }
+
+    /**
+     * Parses a date of the form yyyy-MM-dd, as sent in AMAZON.DATE slots. Single digit months and
+     * days are accepted.
+     *
+     * @param date
+     *            the date to parse
+     * @return days since 1970-01-01
+     * @throws ParseException
+     *             if the value is not a valid date
+     */
+    public static long parseDate(final String date) throws ParseException {
+        int year = 0, month = 0, day = 0;
+        int field = 0, digits = 0;
+        for (int i = 0; i < date.length(); i++) {
+            char c = date.charAt(i);
+            if (c == '-' && digits > 0 && field < 2) {
+                field++;
+                digits = 0;
+            } else if (c >= '0' && c <= '9') {
+                int digit = c - '0';
+                if (field == 0) {
+                    year = year * 10 + digit;
+                } else if (field == 1) {
+                    month = month * 10 + digit;
+                } else {
+                    day = day * 10 + digit;
+                }
+                digits++;
+            } else {
+                throw new ParseException("Invalid date " + date, i);
+            }
+        }
+        if (field != 2 || digits == 0 || month < 1 || month > MONTHS.length || day < 1
+                || day > getDaysInMonth(year, month)) {
+            throw new ParseException("Invalid date " + date, date.length());
+        }
+        return toEpochDay(year, month, day);
+    }
+
+    public static String getMonthName(final int month) {
+        return MONTHS[month - 1];
+    }
+
+    /**
+     * Returns the spoken day of the month, e.g. '21st'.
+     */
+    public static String getDayOfMonthOrdinal(final int day) {
+        return DAYS_OF_MONTH[day - 1];
+    }
+
+    /**
+     * Days since 1970-01-01 for a date in the proleptic Gregorian calendar.
+     */
+    public static long toEpochDay(final int year, final int month, final int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468L;
+    }
+
+    public static int getYear(final long epochDay) {
+        long dayOfEra = getDayOfEra(epochDay);
+        long yearOfEra = getYearOfEra(dayOfEra);
+        long year = yearOfEra + getEra(epochDay) * 400;
+        return (int) (getMonth(epochDay) <= 2 ? year + 1 : year);
+    }
+
+    /**
+     * Returns the month of a date, 1-12.
+     */
+    public static int getMonth(final long epochDay) {
+        int monthIndex = getMonthIndex(epochDay);
+        return monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+    }
+
+    public static int getDayOfMonth(final long epochDay) {
+        long dayOfYear = getDayOfYear(epochDay);
+        return (int) (dayOfYear - (153 * getMonthIndex(epochDay) + 2) / 5 + 1);
+    }
+
+    /**
+     * Returns the day of the week of a date, 0 for Sunday to 6 for Saturday.
+     */
+    public static int getDayOfWeek(final long epochDay) {
+        return (int) (floorMod(epochDay + EPOCH_DAY_OF_WEEK, DAYS_PER_WEEK));
+    }
+
+    private static int getDaysInMonth(final int year, final int month) {
+        return (int) (toEpochDay(month == 12 ? year + 1 : year, month == 12 ? 1 : month + 1, 1)
+                - toEpochDay(year, month, 1));
+    }
+
+    // civil from days, after Howard Hinnant's algorithm with years starting on March 1st
+
+    private static long getEra(final long epochDay) {
+        long shifted = epochDay + 719468L;
+        return (shifted >= 0 ? shifted : shifted - 146096L) / 146097L;
+    }
+
+    private static long getDayOfEra(final long epochDay) {
+        return epochDay + 719468L - getEra(epochDay) * 146097L;
+    }
+
+    private static long getYearOfEra(final long dayOfEra) {
+        return (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    }
+
+    private static long getDayOfYear(final long epochDay) {
+        long dayOfEra = getDayOfEra(epochDay);
+        long yearOfEra = getYearOfEra(dayOfEra);
+        return dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    }
+
+    private static int getMonthIndex(final long epochDay) {
+        return (int) ((5 * getDayOfYear(epochDay) + 2) / 153);
+    }
+
+    private static String getOrdinalSuffix(final int day) {
+        if (day >= 11 && day <= 13) {
+            return "th";
+        }
+        switch (day % 10) {
+            case 1:
+                return "st";
+            case 2:
+                return "nd";
+            case 3:
+                return "rd";
+            default:
+                return "th";
+        }
+    }
+
+    private static long floorDiv(final long x, final long y) {
+        long quotient = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? quotient - 1 : quotient;
+    }
+
+    private static long floorMod(final long x, final long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
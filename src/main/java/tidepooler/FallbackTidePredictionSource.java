@@ -0,0 +1,63 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package tidepooler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tries a list of {@link TidePredictionSource}s in order and returns the predictions of the first
+ * one that succeeds.
+ */
+public class FallbackTidePredictionSource implements TidePredictionSource {
+    private static final Logger log = LoggerFactory.getLogger(FallbackTidePredictionSource.class);
+
+    private final List<TidePredictionSource> sources;
+
+    /**
+     * @param sources
+     *            the sources, in the order they are tried
+     */
+    public FallbackTidePredictionSource(final TidePredictionSource... sources) {
+        this(Arrays.asList(sources));
+    }
+
+    /**
+     * @param sources
+     *            the sources, in the order they are tried
+     */
+    public FallbackTidePredictionSource(final List<TidePredictionSource> sources) {
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("At least one source is required");
+        }
+        this.sources = new ArrayList<TidePredictionSource>(sources);
+    }
+
+    @Override
+    public TidePredictions getPredictions(final int station, final String beginDate)
+            throws IOException {
+        IOException failure = null;
+        for (TidePredictionSource source : sources) {
+            try {
+                return source.getPredictions(station, beginDate);
+            } catch (IOException e) {
+                log.debug("{} has no tides for station {} on {}: {}", source.getClass()
+                        .getSimpleName(), station, beginDate, e.getMessage());
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+}
@@ -0,0 +1,81 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package tidepooler;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads tide predictions from memory mapped {@link TideTable} files, one per station, named
+ * {@code <station>.tides} in a directory. Tables are mapped on first use and kept mapped for the
+ * life of the JVM. Use {@link TideTableImporter} to create them from NOAA JSON dumps.
+ */
+public class MappedTideTableSource implements TidePredictionSource {
+    private static final Logger log = LoggerFactory.getLogger(MappedTideTableSource.class);
+
+    static final String FILE_SUFFIX = ".tides";
+
+
+    private final File directory;
+    private final ConcurrentMap<Integer, TideTable> tables =
+            new ConcurrentHashMap<Integer, TideTable>();
+
+    /**
+     * @param directory
+     *            directory holding the tide table files
+     */
+    public MappedTideTableSource(final File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the file holding the tide table of a station.
+     */
+    static File getFile(final File directory, final int station) {
+        return new File(directory, station + FILE_SUFFIX);
+    }
+
+    @Override
+    public TidePredictions getPredictions(final int station, final String beginDate)
+            throws IOException {
+        TidePredictions predictions = getTable(station).getDay(TidePredictions.parseEpochDay(beginDate));
+        if (predictions == null) {
+            throw new IOException("Tide table for station " + station + " does not cover "
+                    + beginDate);
+        }
+        return predictions;
+    }
+
+    private TideTable getTable(final int station) throws IOException {
+        TideTable table = tables.get(station);
+        if (table != null) {
+            return table;
+        }
+
+        File file = getFile(directory, station);
+        if (!file.isFile()) {
+            throw new FileNotFoundException("No tide table for station " + station);
+        }
+        table = TideTable.map(file);
+        TideTable existing = tables.putIfAbsent(station, table);
+        if (existing != null) {
+            return existing;
+        }
+        log.info("Mapped {} tide predictions for station {} from {}", table.size(), station,
+                file);
+        return table;
+    }
+}
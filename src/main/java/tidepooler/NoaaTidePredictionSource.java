@@ -0,0 +1,44 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package tidepooler;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import webservice.WebServiceClient;
+
+/**
+ * Reads tide predictions from the NOAA CO-OPS API. Results can be verified at:
+ * http://tidesandcurrents.noaa.gov/noaatidepredictions/NOAATidesFacade.jsp?Stationid=[id] .
+ *
+ * @see <a href = "http://tidesandcurrents.noaa.gov/api/">noaa.gov</a>
+ */
+public class NoaaTidePredictionSource implements TidePredictionSource {
+    private static final String DATUM = "MLLW";
+    private static final String ENDPOINT = "http://tidesandcurrents.noaa.gov/api/datagetter";
+
+    private static final WebServiceClient.BodyHandler<TidePredictions> PREDICTIONS_HANDLER =
+            new WebServiceClient.BodyHandler<TidePredictions>() {
+                @Override
+                public TidePredictions handle(InputStream body) throws IOException {
+                    return TidePredictions.readNoaaJson(body);
+                }
+            };
+
+    @Override
+    public TidePredictions getPredictions(final int station, final String beginDate)
+            throws IOException {
+        String queryString =
+                String.format("?begin_date=%s&range=24&station=%d&product=predictions&datum=%s"
+                        + "&units=english&time_zone=lst_ldt&format=json", beginDate, station,
+                        DATUM);
+        return WebServiceClient.getInstance().get(ENDPOINT + queryString, PREDICTIONS_HANDLER);
+    }
+}
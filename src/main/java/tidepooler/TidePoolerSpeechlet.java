@@ -9,22 +9,18 @@
  */
 package tidepooler;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
-import java.nio.charset.Charset;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import speechformat.SpeechDateFormatter;
+
 import com.amazon.speech.slu.Intent;
 import com.amazon.speech.slu.Slot;
 import com.amazon.speech.speechlet.IntentRequest;
@@ -40,10 +36,6 @@ import com.amazon.speech.ui.PlainTextOutputSpeech;
 import com.amazon.speech.ui.SsmlOutputSpeech;
 import com.amazon.speech.ui.Reprompt;
 import com.amazon.speech.ui.SimpleCard;
-import com.amazonaws.util.json.JSONArray;
-import com.amazonaws.util.json.JSONException;
-import com.amazonaws.util.json.JSONObject;
-import com.amazonaws.util.json.JSONTokener;
 
 /**
  * This sample shows how to create a Lambda function for handling Alexa Skill requests that:
@@ -95,9 +87,6 @@ public class TidePoolerSpeechlet implements Speechlet {
     private static final String SESSION_DATE_DISPLAY = "displayDate";
     private static final String SESSION_DATE_REQUEST = "requestDateParam";
 
-    private static final String DATUM = "MLLW";
-    private static final String ENDPOINT = "http://tidesandcurrents.noaa.gov/api/datagetter";
-
     // NOAA station codes
     private static final int STATION_CODE_SEATTLE = 9447130;
     private static final int STATION_CODE_SAN_FRANCISCO = 9414290;
@@ -116,30 +105,87 @@ public class TidePoolerSpeechlet implements Speechlet {
     private static final int STATION_CODE_NEW_ORLEANS = 8761927;
     private static final int STATION_CODE_GALVESTON = 8771341;
 
-    private static final int MONTH_TWO_DIGIT_THRESHOLD = 10;
     private static final double ROUND_TO_HALF_THRESHOLD = 0.75;
     private static final double ROUND_DOWN_THRESHOLD = 0.25;
 
+    private static final SpeechDateFormatter DATE_FORMATTER = SpeechDateFormatter.getDefault();
+
+    // tide prediction cache settings, see TidePredictionCache
+    private static final int CACHE_MAX_ENTRIES = 512;
+    private static final long CACHE_TIME_TO_LIVE_MILLIS = TimeUnit.DAYS.toMillis(2);
+    private static final int PREFETCH_DAYS = 7;
+    private static final long PREFETCH_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    // the dates of stations in these zones, since "today" is the station's local day
+    private static final SpeechDateFormatter PACIFIC_DATES = new SpeechDateFormatter(TimeZone
+            .getTimeZone("America/Los_Angeles"));
+    private static final SpeechDateFormatter CENTRAL_DATES = new SpeechDateFormatter(TimeZone
+            .getTimeZone("America/Chicago"));
+    private static final SpeechDateFormatter EASTERN_DATES = new SpeechDateFormatter(TimeZone
+            .getTimeZone("America/New_York"));
+
+    // API value of a date to be resolved to the station's current date
+    private static final String DATE_TODAY = "today";
+
     // example city to NOAA station mapping. Can be found on: http://tidesandcurrents.noaa.gov/map/
     private static final HashMap<String, Integer> STATIONS = new HashMap<String, Integer>();
+    private static final HashMap<Integer, SpeechDateFormatter> STATION_DATES =
+            new HashMap<Integer, SpeechDateFormatter>();
 
     static {
-        STATIONS.put("seattle", STATION_CODE_SEATTLE);
-        STATIONS.put("san francisco", STATION_CODE_SAN_FRANCISCO);
-        STATIONS.put("monterey", STATION_CODE_MONTEREY);
-        STATIONS.put("los angeles", STATION_CODE_LOS_ANGELES);
-        STATIONS.put("san diego", STATION_CODE_SAN_DIEGO);
-        STATIONS.put("boston", STATION_CODE_BOSTON);
-        STATIONS.put("new york", STATION_CODE_NEW_YORK);
-        STATIONS.put("virginia beach", STATION_CODE_VIRGINIA_BEACH);
-        STATIONS.put("wilmington", STATION_CODE_WILMINGTON);
-        STATIONS.put("charleston", STATION_CODE_CHARLESTON);
-        STATIONS.put("beaufort", STATION_CODE_BEAUFORT);
-        STATIONS.put("myrtle beach", STATION_CODE_MYRTLE_BEACH);
-        STATIONS.put("miami", STATION_CODE_MIAMI);
-        STATIONS.put("tampa", STATION_CODE_TAMPA);
-        STATIONS.put("new orleans", STATION_CODE_NEW_ORLEANS);
-        STATIONS.put("galveston", STATION_CODE_GALVESTON);
+        addStation("seattle", STATION_CODE_SEATTLE, PACIFIC_DATES);
+        addStation("san francisco", STATION_CODE_SAN_FRANCISCO, PACIFIC_DATES);
+        addStation("monterey", STATION_CODE_MONTEREY, PACIFIC_DATES);
+        addStation("los angeles", STATION_CODE_LOS_ANGELES, PACIFIC_DATES);
+        addStation("san diego", STATION_CODE_SAN_DIEGO, PACIFIC_DATES);
+        addStation("boston", STATION_CODE_BOSTON, EASTERN_DATES);
+        addStation("new york", STATION_CODE_NEW_YORK, EASTERN_DATES);
+        addStation("virginia beach", STATION_CODE_VIRGINIA_BEACH, EASTERN_DATES);
+        addStation("wilmington", STATION_CODE_WILMINGTON, EASTERN_DATES);
+        addStation("charleston", STATION_CODE_CHARLESTON, EASTERN_DATES);
+        addStation("beaufort", STATION_CODE_BEAUFORT, EASTERN_DATES);
+        addStation("myrtle beach", STATION_CODE_MYRTLE_BEACH, EASTERN_DATES);
+        addStation("miami", STATION_CODE_MIAMI, EASTERN_DATES);
+        addStation("tampa", STATION_CODE_TAMPA, EASTERN_DATES);
+        addStation("new orleans", STATION_CODE_NEW_ORLEANS, CENTRAL_DATES);
+        addStation("galveston", STATION_CODE_GALVESTON, CENTRAL_DATES);
+    }
+
+    private static void addStation(final String city, final int station,
+            final SpeechDateFormatter dates) {
+        STATIONS.put(city, station);
+        STATION_DATES.put(station, dates);
+    }
+
+    private final TidePredictionCache predictionCache;
+
+    public TidePoolerSpeechlet() {
+        predictionCache =
+                new TidePredictionCache(createPredictionSource(), Integer.getInteger(
+                        "tidepooler.cache.maxEntries", CACHE_MAX_ENTRIES),
+                        CACHE_TIME_TO_LIVE_MILLIS);
+        // warm today and the coming week for every station unless disabled with
+        // -Dtidepooler.prefetch=false
+        if (Boolean.parseBoolean(System.getProperty("tidepooler.prefetch", "true"))) {
+            predictionCache.startPrefetch(STATION_DATES, PREFETCH_DAYS,
+                    PREFETCH_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * Creates the source of tide predictions. When -Dtidepooler.tideTableDir points to a directory
+     * of tide tables created by {@link TideTableImporter}, those are used first and NOAA is only
+     * called for stations or days the tables do not cover.
+     */
+    private static TidePredictionSource createPredictionSource() {
+        TidePredictionSource noaa = new NoaaTidePredictionSource();
+        String tideTableDir = System.getProperty("tidepooler.tideTableDir");
+        if (tideTableDir == null) {
+            return noaa;
+        }
+        log.info("Reading tide tables from {}", tideTableDir);
+        return new FallbackTidePredictionSource(new MappedTideTableSource(new File(tideTableDir)),
+                noaa);
     }
 
     @Override
@@ -373,72 +419,57 @@ public class TidePoolerSpeechlet implements Speechlet {
     }
 
     /**
-     * Uses NOAA.gov API, documented at noaa.gov. Results can be verified at:
-     * http://tidesandcurrents.noaa.gov/noaatidepredictions/NOAATidesFacade.jsp?Stationid=[id] .
-     *
-     * @see <a href = "http://tidesandcurrents.noaa.gov/api/">noaa.gov</a>
-     * @throws IOException
+     * Looks up the tide predictions for the city and date, from the prediction cache or the NOAA
+     * API, and builds the spoken answer.
      */
     private SpeechletResponse makeTideRequest(CityDateValues<String, String> cityStation,
             CityDateValues<String, String> date) {
-        String queryString =
-                String.format("?%s&station=%s&product=predictions&datum=%s&units=english"
-                        + "&time_zone=lst_ldt&format=json", date.apiValue, cityStation.apiValue,
-                        DATUM);
+        String speechOutput;
 
-        String speechOutput = "";
-
-        InputStreamReader inputStream = null;
-        BufferedReader bufferedReader = null;
-        StringBuilder builder = new StringBuilder();
+        TidePredictions.HighTides highTides = null;
         try {
-            String line;
-            URL url = new URL(ENDPOINT + queryString);
-            inputStream = new InputStreamReader(url.openStream(), Charset.forName("US-ASCII"));
-            bufferedReader = new BufferedReader(inputStream);
-            while ((line = bufferedReader.readLine()) != null) {
-                builder.append(line);
+            int station = Integer.parseInt(cityStation.apiValue);
+            String beginDate = date.apiValue;
+            if (DATE_TODAY.equals(beginDate)) {
+                // NOAA's dates are the station's local dates, not the server's
+                beginDate =
+                        SpeechDateFormatter.formatBasicDate(STATION_DATES.get(station).today());
+            }
+            TidePredictions predictions = predictionCache.getPredictions(station, beginDate);
+            highTides = predictions.findHighTides();
+            if (highTides == null) {
+                log.error("NOAA predictions for station {} do not contain two high tides",
+                        cityStation.apiValue);
             }
         } catch (IOException e) {
-            // reset builder to a blank string
-            builder.setLength(0);
-        } finally {
-            IOUtils.closeQuietly(inputStream);
-            IOUtils.closeQuietly(bufferedReader);
+            log.error("Exception occoured while requesting or parsing service response.", e);
         }
 
-        if (builder.length() == 0) {
+        if (highTides == null) {
             speechOutput =
                     "Sorry, the National Oceanic tide service is experiencing a problem. "
                             + "Please try again later.";
         } else {
-            try {
-                JSONObject noaaResponseObject = new JSONObject(new JSONTokener(builder.toString()));
-                if (noaaResponseObject != null) {
-                    HighTideValues highTideResponse = findHighTide(noaaResponseObject);
-                    speechOutput =
-                            new StringBuilder()
-                                    .append(date.speechValue)
-                                    .append(" in ")
-                                    .append(cityStation.speechValue)
-                                    .append(", the first high tide will be around ")
-                                    .append(highTideResponse.firstHighTideTime)
-                                    .append(", and will peak at about ")
-                                    .append(highTideResponse.firstHighTideHeight)
-                                    .append(", followed by a low tide at around ")
-                                    .append(highTideResponse.lowTideTime)
-                                    .append(" that will be about ")
-                                    .append(highTideResponse.lowTideHeight)
-                                    .append(". The second high tide will be around ")
-                                    .append(highTideResponse.secondHighTideTime)
-                                    .append(", and will peak at about ")
-                                    .append(highTideResponse.secondHighTideHeight)
-                                    .append(".")
-                                    .toString();
-                }
-            } catch (JSONException | ParseException e) {
-                log.error("Exception occoured while parsing service response.", e);
-            }
+            HighTideValues highTideResponse = formatHighTides(highTides);
+            speechOutput =
+                    new StringBuilder()
+                            .append(date.speechValue)
+                            .append(" in ")
+                            .append(cityStation.speechValue)
+                            .append(", the first high tide will be around ")
+                            .append(highTideResponse.firstHighTideTime)
+                            .append(", and will peak at about ")
+                            .append(highTideResponse.firstHighTideHeight)
+                            .append(", followed by a low tide at around ")
+                            .append(highTideResponse.lowTideTime)
+                            .append(" that will be about ")
+                            .append(highTideResponse.lowTideHeight)
+                            .append(". The second high tide will be around ")
+                            .append(highTideResponse.secondHighTideTime)
+                            .append(", and will peak at about ")
+                            .append(highTideResponse.secondHighTideHeight)
+                            .append(".")
+                            .toString();
         }
 
         // Create the Simple card content.
@@ -454,61 +485,29 @@ public class TidePoolerSpeechlet implements Speechlet {
     }
 
     /**
-     * Algorithm to find the 2 high tides for the day, the first of which is smaller and occurs
-     * mid-day, the second of which is larger and typically in the evening.
-     *
-     * @throws JSONException
-     * @throws ParseException
+     * Formats the high and low tides found in the predictions for speech.
      */
-    private HighTideValues findHighTide(JSONObject responseObject) throws JSONException,
-            ParseException {
-        JSONArray predictions = (JSONArray) responseObject.get("predictions");
-        JSONObject lastPrediction = null, firstHighTide = null, secondHighTide = null, lowTide =
-                null;
-        boolean firstTideDone = false;
-
-        for (int i = 0; i < predictions.length(); i++) {
-            JSONObject prediction = (JSONObject) predictions.get(i);
-
-            if (lastPrediction == null) {
-                lastPrediction = prediction;
-                continue;
-            }
-
-            if (isTideIncreasing(lastPrediction, prediction)) {
-                if (!firstTideDone) {
-                    firstHighTide = prediction;
-                } else {
-                    secondHighTide = prediction;
-                }
-            } else { // we're decreasing
-                if (!firstTideDone && firstHighTide != null) {
-                    firstTideDone = true;
-                } else if (secondHighTide != null) {
-                    break; // we're decreasing after having found the 2nd tide. We're done.
-                }
-
-                if (firstTideDone) {
-                    lowTide = prediction;
-                }
-            }
-            lastPrediction = prediction;
-        }
+    private HighTideValues formatHighTides(TidePredictions.HighTides highTides) {
+        return new HighTideValues(getFormattedTime(highTides.getFirstHighTideTime()),
+                getFormattedHeight(highTides.getFirstHighTideHeight()),
+                getFormattedTime(highTides.getLowTideTime()),
+                getFormattedHeight(highTides.getLowTideHeight()),
+                getFormattedTime(highTides.getSecondHighTideTime()),
+                getFormattedHeight(highTides.getSecondHighTideHeight()));
+    }
 
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-d HH:mm");
-        return new HighTideValues(AlexaDateUtil.getFormattedTime(dateFormat.parse(firstHighTide
-                .getString("t"))), getFormattedHeight(firstHighTide.getString("v")),
-                AlexaDateUtil.getFormattedTime(dateFormat.parse(lowTide.getString("t"))),
-                getFormattedHeight(lowTide.getString("v")),
-                AlexaDateUtil.getFormattedTime(dateFormat.parse(secondHighTide.getString("t"))),
-                getFormattedHeight(secondHighTide.getString("v")));
+    /**
+     * Formats a prediction time, in local minutes since the epoch, for speech.
+     */
+    private String getFormattedTime(long epochMinute) {
+        return DATE_FORMATTER.formatTime(TidePredictions.getHourOfDay(epochMinute),
+                TidePredictions.getMinuteOfHour(epochMinute));
     }
 
     /**
      * Formats the height, rounding to the nearest 1/2 foot. e.g. 4.354 -> "four and a half feet".
      */
-    private String getFormattedHeight(String heightString) {
-        double height = Double.parseDouble(heightString);
+    private String getFormattedHeight(double height) {
         boolean isNegative = false;
         if (height < 0) {
             height = Math.abs(height);
@@ -571,12 +570,6 @@ public class TidePoolerSpeechlet implements Speechlet {
         return cityObject;
     }
 
-    private static boolean isTideIncreasing(JSONObject lastPrediction, JSONObject currentPrediction)
-            throws NumberFormatException, JSONException {
-        return Double.parseDouble(lastPrediction.getString("v")) < Double
-                .parseDouble(currentPrediction.getString("v"));
-    }
-
     /**
      * Gets the date from the intent, defaulting to today if none provided, or returns an error.
      */
@@ -587,35 +580,20 @@ public class TidePoolerSpeechlet implements Speechlet {
         // slots can be missing, or slots can be provided but with empty value.
         // must test for both
         if (dateSlot == null || dateSlot.getValue() == null) {
-            // default to today
-            dateObject = new CityDateValues<String, String>("Today", "date=today");
+            // default to today, resolved once the station is known
+            dateObject = new CityDateValues<String, String>("Today", DATE_TODAY);
             return dateObject;
         } else {
-            DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-d");
-            Date date;
+            long date;
             try {
-                date = dateFormat.parse(dateSlot.getValue());
+                date = SpeechDateFormatter.parseDate(dateSlot.getValue());
             } catch (ParseException e) {
-                date = new Date();
+                return new CityDateValues<String, String>("Today", DATE_TODAY);
             }
 
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTime(date);
-            int month = calendar.get(Calendar.MONTH) + 1;
-            String monthString =
-                    month < MONTH_TWO_DIGIT_THRESHOLD ? "0" + Integer.toString(month) : Integer
-                            .toString(month);
-            int day = calendar.get(Calendar.DATE);
-            String dayString =
-                    day < MONTH_TWO_DIGIT_THRESHOLD ? "0" + Integer.toString(day) : Integer
-                            .toString(day);
-            String requestDay =
-                    "begin_date=" + calendar.get(Calendar.YEAR) + monthString + dayString
-                            + "&range=24";
-
             dateObject =
-                    new CityDateValues<String, String>(AlexaDateUtil.getFormattedDate(date),
-                            requestDay);
+                    new CityDateValues<String, String>(DATE_FORMATTER.formatDate(date),
+                            SpeechDateFormatter.formatBasicDate(date));
             return dateObject;
         }
     }
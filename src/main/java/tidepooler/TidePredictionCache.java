@@ -0,0 +1,175 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package tidepooler;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import speechformat.SpeechDateFormatter;
+
+/**
+ * Bounded, least recently used cache of tide predictions keyed by station and date, in front of
+ * another {@link TidePredictionSource}. Predictions for a station and day do not change, so
+ * entries only expire after a long time to live, and a background prefetcher can warm the coming
+ * days for every known station.
+ */
+public class TidePredictionCache implements TidePredictionSource {
+    private static final Logger log = LoggerFactory.getLogger(TidePredictionCache.class);
+
+    private final TidePredictionSource source;
+    private final long timeToLiveMillis;
+    private final Map<String, Entry> entries;
+
+    private ScheduledExecutorService prefetcher;
+
+    /**
+     * @param source
+     *            source to load predictions from on a cache miss
+     * @param maxEntries
+     *            maximum number of station days kept
+     * @param timeToLiveMillis
+     *            time after which an entry is loaded again
+     */
+    public TidePredictionCache(final TidePredictionSource source, final int maxEntries,
+            final long timeToLiveMillis) {
+        this.source = source;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.entries = new LinkedHashMap<String, Entry>(maxEntries, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public TidePredictions getPredictions(final int station, final String beginDate)
+            throws IOException {
+        String key = getKey(station, beginDate);
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                return entry.predictions;
+            }
+        }
+
+        // load outside the lock so a slow source does not block hits for other stations
+        TidePredictions predictions = source.getPredictions(station, beginDate);
+        synchronized (entries) {
+            entries.put(key, new Entry(predictions, now + timeToLiveMillis));
+        }
+        return predictions;
+    }
+
+    /**
+     * Returns true if a live entry exists for the station and date.
+     */
+    public boolean contains(final int station, final String beginDate) {
+        synchronized (entries) {
+            Entry entry = entries.get(getKey(station, beginDate));
+            return entry != null && entry.expiresAt > System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Starts a background thread that periodically loads today and the following days for each
+     * station, so that requests for those days never wait on the source. Stations are loaded one
+     * at a time to leave the source's capacity for live requests.
+     *
+     * @param stations
+     *            the station codes to prefetch, each with the formatter of its time zone, in which
+     *            its today is determined
+     * @param days
+     *            number of days after today to prefetch
+     * @param intervalMillis
+     *            time between prefetch runs
+     */
+    public synchronized void startPrefetch(final Map<Integer, SpeechDateFormatter> stations,
+            final int days,
+            final long intervalMillis) {
+        if (prefetcher != null) {
+            return;
+        }
+        prefetcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "tide-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        prefetcher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                prefetch(stations, days);
+            }
+        }, 0L, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background prefetcher, if started.
+     */
+    public synchronized void stopPrefetch() {
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+            prefetcher = null;
+        }
+    }
+
+    private void prefetch(final Map<Integer, SpeechDateFormatter> stations, final int days) {
+        int loaded = 0;
+        for (int day = 0; day <= days; day++) {
+            for (Map.Entry<Integer, SpeechDateFormatter> stationDates : stations.entrySet()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                int station = stationDates.getKey();
+                String beginDate =
+                        SpeechDateFormatter.formatBasicDate(stationDates.getValue().today() + day);
+                if (contains(station, beginDate)) {
+                    continue;
+                }
+                try {
+                    getPredictions(station, beginDate);
+                    loaded++;
+                } catch (IOException e) {
+                    log.warn("Unable to prefetch tides for station {} on {}: {}", station,
+                            beginDate, e.getMessage());
+                }
+            }
+        }
+        log.info("Prefetched {} station days of tide predictions", loaded);
+    }
+
+    private static String getKey(final int station, final String beginDate) {
+        return station + "/" + beginDate;
+    }
+
+    private static final class Entry {
+        private final TidePredictions predictions;
+        private final long expiresAt;
+
+        private Entry(final TidePredictions predictions, final long expiresAt) {
+            this.predictions = predictions;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package tidepooler;
+
+import java.io.IOException;
+
+/**
+ * Provides the tide predictions of a NOAA station for a single day.
+ */
+public interface TidePredictionSource {
+    /**
+     * Returns the predictions for a station, for the 24 hours starting at midnight local time on
+     * the given date.
+     *
+     * @param station
+     *            NOAA station code
+     * @param beginDate
+     *            the date, formatted as yyyyMMdd
+     * @return the predictions for that day
+     * @throws IOException
+     *             if the predictions cannot be obtained
+     */
+    TidePredictions getPredictions(int station, String beginDate) throws IOException;
+}
@@ -0,0 +1,358 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package tidepooler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+
+import speechformat.SpeechDateFormatter;
+
+/**
+ * A series of tide predictions for a station, in time order. Each prediction is a local time
+ * (minutes since the epoch, station local time) and a water level (feet). Predictions read from
+ * NOAA are held in primitive arrays; other sources may read them straight from a buffer.
+ */
+public abstract class TidePredictions {
+    private static final JsonParserFactory PARSER_FACTORY = Json.createParserFactory(null);
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int DATE_LENGTH = 8;
+    static final int MINUTES_PER_HOUR = 60;
+    static final int MINUTES_PER_DAY = 24 * MINUTES_PER_HOUR;
+
+    /**
+     * Reads the {@code predictions} array of a NOAA CO-OPS JSON response with a streaming parser.
+     * Reading stops as soon as both high tides of the day have been seen, so the rest of the body
+     * is never parsed.
+     *
+     * @param json
+     *            the response body
+     * @return the predictions read, up to and including the end of the second high tide
+     * @throws IOException
+     *             if the body cannot be read or contains no predictions
+     */
+    public static TidePredictions readNoaaJson(final InputStream json) throws IOException {
+        return readNoaaJson(json, true);
+    }
+
+    /**
+     * Reads every prediction of a NOAA CO-OPS JSON response, e.g. a dump covering a whole year.
+     *
+     * @param json
+     *            the response body
+     * @return all predictions in the response
+     * @throws IOException
+     *             if the body cannot be read or contains no predictions
+     */
+    public static TidePredictions readAllNoaaJson(final InputStream json) throws IOException {
+        return readNoaaJson(json, false);
+    }
+
+    private static TidePredictions readNoaaJson(final InputStream json,
+            final boolean stopAfterHighTides) throws IOException {
+        JsonParser parser = PARSER_FACTORY.createParser(json);
+        try {
+            if (!skipToPredictions(parser)) {
+                throw new IOException("Response contains no predictions");
+            }
+
+            ArrayTidePredictions predictions = new ArrayTidePredictions(INITIAL_CAPACITY);
+            HighTideFinder finder = new HighTideFinder();
+            String time = null, height = null;
+            while (parser.hasNext()) {
+                JsonParser.Event event = parser.next();
+                if (event == JsonParser.Event.END_ARRAY) {
+                    break;
+                } else if (event == JsonParser.Event.START_OBJECT) {
+                    time = null;
+                    height = null;
+                } else if (event == JsonParser.Event.KEY_NAME) {
+                    String key = parser.getString();
+                    parser.next();
+                    if ("t".equals(key)) {
+                        time = parser.getString();
+                    } else if ("v".equals(key)) {
+                        height = parser.getString();
+                    }
+                } else if (event == JsonParser.Event.END_OBJECT) {
+                    if (time == null || height == null) {
+                        throw new IOException("Prediction is missing a time or a value");
+                    }
+                    predictions.add(parseLocalTime(time), Double.parseDouble(height));
+                    if (!finder.offer(predictions, predictions.size() - 1)
+                            && stopAfterHighTides) {
+                        break;
+                    }
+                }
+            }
+            return predictions;
+        } catch (JsonException | NumberFormatException e) {
+            throw new IOException("Unable to parse tide predictions", e);
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static boolean skipToPredictions(final JsonParser parser) {
+        int depth = 0;
+        while (parser.hasNext()) {
+            JsonParser.Event event = parser.next();
+            if (event == JsonParser.Event.START_OBJECT || event == JsonParser.Event.START_ARRAY) {
+                depth++;
+            } else if (event == JsonParser.Event.END_OBJECT
+                    || event == JsonParser.Event.END_ARRAY) {
+                depth--;
+            } else if (event == JsonParser.Event.KEY_NAME && depth == 1
+                    && "predictions".equals(parser.getString())) {
+                return parser.hasNext() && parser.next() == JsonParser.Event.START_ARRAY;
+            }
+        }
+        return false;
+    }
+
+    public abstract int size();
+
+    /**
+     * Returns the local time of a prediction in minutes since the epoch.
+     */
+    public abstract long getTime(int index);
+
+    public abstract double getHeight(int index);
+
+    /**
+     * Finds the two high tides of the day and the low tide between them in a single pass.
+     *
+     * @return the high and low tides, or null if the predictions do not cover both high tides
+     */
+    public HighTides findHighTides() {
+        HighTideFinder finder = new HighTideFinder();
+        for (int i = 0; i < size() && finder.offer(this, i); i++) {
+            // the finder keeps track of the extrema
+        }
+        return finder.getHighTides(this);
+    }
+
+    /**
+     * Parses a NOAA local time of the form "2015-06-20 07:18" into minutes since the epoch,
+     * without allocating.
+     */
+    static long parseLocalTime(final String time) throws IOException {
+        int year = 0, month = 0, day = 0, hour = 0, minute = 0;
+        int field = -1;
+        boolean inNumber = false;
+        for (int i = 0; i < time.length(); i++) {
+            char c = time.charAt(i);
+            if (c < '0' || c > '9') {
+                inNumber = false;
+                continue;
+            }
+            if (!inNumber) {
+                inNumber = true;
+                field++;
+            }
+            int digit = c - '0';
+            switch (field) {
+                case 0:
+                    year = year * 10 + digit;
+                    break;
+                case 1:
+                    month = month * 10 + digit;
+                    break;
+                case 2:
+                    day = day * 10 + digit;
+                    break;
+                case 3:
+                    hour = hour * 10 + digit;
+                    break;
+                case 4:
+                    minute = minute * 10 + digit;
+                    break;
+                default:
+                    throw new IOException("Invalid prediction time " + time);
+            }
+        }
+        if (field != 4) {
+            throw new IOException("Invalid prediction time " + time);
+        }
+        return toEpochMinute(year, month, day, hour, minute);
+    }
+
+    /**
+     * Parses a yyyyMMdd date into days since the epoch.
+     */
+    static long parseEpochDay(final String date) throws IOException {
+        if (date == null || date.length() != DATE_LENGTH) {
+            throw new IOException("Invalid date " + date);
+        }
+        try {
+            return SpeechDateFormatter.toEpochDay(Integer.parseInt(date.substring(0, 4)),
+                    Integer.parseInt(date.substring(4, 6)), Integer.parseInt(date.substring(6)));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid date " + date, e);
+        }
+    }
+
+    /**
+     * Converts a local date and time into minutes since the epoch.
+     */
+    static long toEpochMinute(final int year, final int month, final int day, final int hour,
+            final int minute) {
+        return SpeechDateFormatter.toEpochDay(year, month, day) * MINUTES_PER_DAY + hour
+                * MINUTES_PER_HOUR + minute;
+    }
+
+    static int getHourOfDay(final long epochMinute) {
+        return (int) ((epochMinute % MINUTES_PER_DAY) / MINUTES_PER_HOUR);
+    }
+
+    static int getMinuteOfHour(final long epochMinute) {
+        return (int) (epochMinute % MINUTES_PER_HOUR);
+    }
+
+    /**
+     * The two high tides of a day and the low tide between them.
+     */
+    public static final class HighTides {
+        private final long firstHighTideTime, lowTideTime, secondHighTideTime;
+        private final double firstHighTideHeight, lowTideHeight, secondHighTideHeight;
+
+        HighTides(long firstHighTideTime, double firstHighTideHeight, long lowTideTime,
+                double lowTideHeight, long secondHighTideTime, double secondHighTideHeight) {
+            this.firstHighTideTime = firstHighTideTime;
+            this.firstHighTideHeight = firstHighTideHeight;
+            this.lowTideTime = lowTideTime;
+            this.lowTideHeight = lowTideHeight;
+            this.secondHighTideTime = secondHighTideTime;
+            this.secondHighTideHeight = secondHighTideHeight;
+        }
+
+        public long getFirstHighTideTime() {
+            return firstHighTideTime;
+        }
+
+        public double getFirstHighTideHeight() {
+            return firstHighTideHeight;
+        }
+
+        public long getLowTideTime() {
+            return lowTideTime;
+        }
+
+        public double getLowTideHeight() {
+            return lowTideHeight;
+        }
+
+        public long getSecondHighTideTime() {
+            return secondHighTideTime;
+        }
+
+        public double getSecondHighTideHeight() {
+            return secondHighTideHeight;
+        }
+    }
+
+    /**
+     * Algorithm to find the 2 high tides for the day, the first of which is smaller and occurs
+     * mid-day, the second of which is larger and typically in the evening. Predictions are offered
+     * one at a time, in order, and the finder reports when it has seen enough.
+     */
+    static final class HighTideFinder {
+        private int lastIndex = -1;
+        private int firstHighTide = -1, lowTide = -1, secondHighTide = -1;
+        private boolean firstTideDone;
+
+        /**
+         * Offers the prediction at the given index.
+         *
+         * @return true if more predictions are needed, false once the second high tide is over
+         */
+        boolean offer(final TidePredictions predictions, final int index) {
+            if (lastIndex < 0) {
+                lastIndex = index;
+                return true;
+            }
+
+            if (predictions.getHeight(lastIndex) < predictions.getHeight(index)) {
+                if (!firstTideDone) {
+                    firstHighTide = index;
+                } else {
+                    secondHighTide = index;
+                }
+            } else { // we're decreasing
+                if (!firstTideDone && firstHighTide >= 0) {
+                    firstTideDone = true;
+                } else if (secondHighTide >= 0) {
+                    return false; // we're decreasing after having found the 2nd tide. We're done.
+                }
+
+                if (firstTideDone) {
+                    lowTide = index;
+                }
+            }
+            lastIndex = index;
+            return true;
+        }
+
+        HighTides getHighTides(final TidePredictions predictions) {
+            if (firstHighTide < 0 || lowTide < 0 || secondHighTide < 0) {
+                return null;
+            }
+            return new HighTides(predictions.getTime(firstHighTide),
+                    predictions.getHeight(firstHighTide), predictions.getTime(lowTide),
+                    predictions.getHeight(lowTide), predictions.getTime(secondHighTide),
+                    predictions.getHeight(secondHighTide));
+        }
+    }
+
+    /**
+     * Predictions held in parallel primitive arrays.
+     */
+    static final class ArrayTidePredictions extends TidePredictions {
+        private long[] times;
+        private double[] heights;
+        private int size;
+
+        ArrayTidePredictions(final int capacity) {
+            times = new long[Math.max(capacity, 1)];
+            heights = new double[Math.max(capacity, 1)];
+        }
+
+        void add(final long time, final double height) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                heights = Arrays.copyOf(heights, size * 2);
+            }
+            times[size] = time;
+            heights[size] = height;
+            size++;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public long getTime(final int index) {
+            return times[index];
+        }
+
+        @Override
+        public double getHeight(final int index) {
+            return heights[index];
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package tidepooler;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A table of tide predictions for one station, stored in a compact binary file and memory mapped
+ * so the predictions stay off the heap and are paged in by the OS on first use.
+ * <p>
+ * The file starts with a header of four big endian ints: magic number, format version, station
+ * code and record count. It is followed by fixed width records, in time order, of an int local
+ * time in minutes since the epoch and a float height in feet.
+ */
+public final class TideTable {
+    static final int MAGIC = 0x54494445; // "TIDE"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 8;
+
+    private static final int HEIGHT_OFFSET = 4;
+
+    private final int station;
+    private final int size;
+    private final ByteBuffer buffer;
+
+    private TideTable(final int station, final int size, final ByteBuffer buffer) {
+        this.station = station;
+        this.size = size;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Maps a tide table file into memory. The mapping remains valid after the file is replaced.
+     *
+     * @param file
+     *            the tide table file
+     * @return the mapped table
+     * @throws IOException
+     *             if the file cannot be read or is not a tide table
+     */
+    public static TideTable map(final File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException(file + " is not a tide table");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a tide table");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported tide table version " + buffer.getInt(4)
+                        + " in " + file);
+            }
+            int size = buffer.getInt(12);
+            if (size < 0 || HEADER_SIZE + (long) size * RECORD_SIZE > length) {
+                throw new IOException(file + " is truncated");
+            }
+            return new TideTable(buffer.getInt(8), size, buffer);
+        }
+    }
+
+    /**
+     * Writes predictions as a tide table file. The table is written next to the target and moved
+     * into place, so tables already mapped by a running skill are not disturbed.
+     *
+     * @param file
+     *            the tide table file
+     * @param station
+     *            NOAA station code
+     * @param predictions
+     *            the predictions, in time order
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public static void write(final File file, final int station,
+            final TidePredictions predictions) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(station);
+            out.writeInt(predictions.size());
+            for (int i = 0; i < predictions.size(); i++) {
+                out.writeInt((int) predictions.getTime(i));
+                out.writeFloat((float) predictions.getHeight(i));
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int getStation() {
+        return station;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the predictions for the 24 hours starting at midnight local time of a day, as a view
+     * over the mapped records.
+     *
+     * @param epochDay
+     *            days since 1970-01-01
+     * @return the predictions of that day, or null if the table does not cover the whole day
+     */
+    public TidePredictions getDay(final long epochDay) {
+        if (size == 0) {
+            return null;
+        }
+        long dayStart = epochDay * TidePredictions.MINUTES_PER_DAY;
+        long dayEnd = dayStart + TidePredictions.MINUTES_PER_DAY;
+        // allow for hourly tables, whose last record of the day is at 23:00
+        if (getTime(0) > dayStart
+                || getTime(size - 1) < dayEnd - TidePredictions.MINUTES_PER_HOUR) {
+            return null;
+        }
+
+        int from = indexOf(dayStart);
+        int to = indexOf(dayEnd + 1);
+        return new Day(from, to - from);
+    }
+
+    /**
+     * Binary search for the first record at or after the given time.
+     */
+    private int indexOf(final long time) {
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getTime(mid) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long getTime(final int index) {
+        return buffer.getInt(HEADER_SIZE + index * RECORD_SIZE);
+    }
+
+    private double getHeight(final int index) {
+        return buffer.getFloat(HEADER_SIZE + index * RECORD_SIZE + HEIGHT_OFFSET);
+    }
+
+    /**
+     * A day of predictions read straight from the mapped buffer with absolute gets, so views can
+     * be used from several threads at once.
+     */
+    private final class Day extends TidePredictions {
+        private final int offset;
+        private final int length;
+
+        private Day(final int offset, final int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int size() {
+            return length;
+        }
+
+        @Override
+        public long getTime(final int index) {
+            return TideTable.this.getTime(offset + index);
+        }
+
+        @Override
+        public double getHeight(final int index) {
+            return TideTable.this.getHeight(offset + index);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/**
+    Copyright 2014-2015 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+
+    Licensed under the Apache License, Version 2.0 (the "License"). You may not use this file except in compliance with the License. A copy of the License is located at
+
+        http://aws.amazon.com/apache2.0/
+
+    or in the "license" file accompanying this file. This file is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package tidepooler;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Command line tool that converts NOAA CO-OPS JSON prediction dumps into a {@link TideTable} file
+ * for {@link MappedTideTableSource}. Dumps can be downloaded a year at a time, e.g.
+ * {@code http://tidesandcurrents.noaa.gov/api/datagetter?begin_date=20160101&end_date=20161231
+ * &station=9447130&product=predictions&datum=MLLW&units=english&time_zone=lst_ldt&format=json}.
+ * <p>
+ * Usage: {@code TideTableImporter <output directory> <station> <dump.json>...}
+ * <p>
+ * Dumps may overlap and be given in any order; later dumps win for duplicate times. An existing
+ * table for the station is replaced.
+ */
+public final class TideTableImporter {
+    private static final int MIN_ARGS = 3;
+
+    private TideTableImporter() {
+    }
+
+    /**
+     * Main entry point.
+     *
+     * @param args
+     *            output directory, station code and one or more JSON dump files
+     * @throws IOException
+     *             if a dump cannot be read or the table cannot be written
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < MIN_ARGS) {
+            System.err.println("Usage: TideTableImporter <output directory> <station>"
+                    + " <dump.json>...");
+            System.exit(1);
+        }
+        File directory = new File(args[0]);
+        int station = Integer.parseInt(args[1]);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+
+        Map<Long, Double> merged = new TreeMap<Long, Double>();
+        for (int i = 2; i < args.length; i++) {
+            TidePredictions predictions = read(new File(args[i]));
+            for (int j = 0; j < predictions.size(); j++) {
+                merged.put(predictions.getTime(j), predictions.getHeight(j));
+            }
+            System.out.println("Read " + predictions.size() + " predictions from " + args[i]);
+        }
+
+        TidePredictions.ArrayTidePredictions table =
+                new TidePredictions.ArrayTidePredictions(merged.size());
+        for (Map.Entry<Long, Double> entry : merged.entrySet()) {
+            table.add(entry.getKey(), entry.getValue());
+        }
+        File file = MappedTideTableSource.getFile(directory, station);
+        TideTable.write(file, station, table);
+        System.out.println("Wrote " + table.size() + " predictions for station " + station
+                + " to " + file);
+    }
+
+    private static TidePredictions read(final File dump) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(dump))) {
+            return TidePredictions.readAllNoaaJson(in);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package webservice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HeaderElement;
+import org.apache.http.Header;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HTTP client shared by the skills that call external web services. Connections are pooled and
+ * kept alive between requests, so a warm JVM or Lambda container does not pay TCP and TLS setup on
+ * every utterance. Settings are read from system properties:
+ * <ul>
+ * <li>{@code webservice.connectTimeoutMillis} - TCP connect timeout (default 2000)</li>
+ * <li>{@code webservice.readTimeoutMillis} - socket read timeout (default 5000)</li>
+ * <li>{@code webservice.poolTimeoutMillis} - time to wait for a pooled connection (default
+ * 2000)</li>
+ * <li>{@code webservice.maxConnections} - size of the connection pool (default 64)</li>
+ * <li>{@code webservice.maxConnectionsPerHost} - concurrent connections per host (default 8)</li>
+ * <li>{@code webservice.keepAliveMillis} - keep-alive used when the server does not send one
+ * (default 30000)</li>
+ * </ul>
+ */
+public final class WebServiceClient {
+    private static final Logger log = LoggerFactory.getLogger(WebServiceClient.class);
+
+    private static final String PREFIX = "webservice.";
+
+    private static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int DEFAULT_READ_TIMEOUT_MILLIS = 5000;
+    private static final int DEFAULT_POOL_TIMEOUT_MILLIS = 2000;
+    private static final int DEFAULT_MAX_CONNECTIONS = 64;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+    private static final int DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+
+    private static final WebServiceClient INSTANCE = new WebServiceClient();
+
+    private final CloseableHttpClient httpClient;
+
+    /**
+     * Reads the body of a successful response. The stream is closed by the client once the
+     * handler returns.
+     *
+     * @param <T>
+     *            type of the value read from the body
+     */
+    public interface BodyHandler<T> {
+        T handle(InputStream body) throws IOException;
+    }
+
+    /**
+     * Reads the body of a successful response together with its entity tag.
+     *
+     * @param <T>
+     *            type of the value read from the body
+     */
+    public interface VersionedBodyHandler<T> {
+        /**
+         * @param body
+         *            the response body, closed by the client once the handler returns
+         * @param etag
+         *            the ETag header of the response, or null if the server did not send one
+         */
+        T handle(InputStream body, String etag) throws IOException;
+    }
+
+    private WebServiceClient() {
+        PoolingHttpClientConnectionManager connectionManager =
+                new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(Integer.getInteger(PREFIX + "maxConnections",
+                DEFAULT_MAX_CONNECTIONS));
+        connectionManager.setDefaultMaxPerRoute(Integer.getInteger(PREFIX
+                + "maxConnectionsPerHost", DEFAULT_MAX_CONNECTIONS_PER_HOST));
+
+        RequestConfig requestConfig =
+                RequestConfig
+                        .custom()
+                        .setConnectTimeout(
+                                Integer.getInteger(PREFIX + "connectTimeoutMillis",
+                                        DEFAULT_CONNECT_TIMEOUT_MILLIS))
+                        .setSocketTimeout(
+                                Integer.getInteger(PREFIX + "readTimeoutMillis",
+                                        DEFAULT_READ_TIMEOUT_MILLIS))
+                        .setConnectionRequestTimeout(
+                                Integer.getInteger(PREFIX + "poolTimeoutMillis",
+                                        DEFAULT_POOL_TIMEOUT_MILLIS))
+                        .build();
+
+        httpClient =
+                HttpClients
+                        .custom()
+                        .setConnectionManager(connectionManager)
+                        .setDefaultRequestConfig(requestConfig)
+                        .setKeepAliveStrategy(
+                                new KeepAliveStrategy(Integer.getInteger(PREFIX
+                                        + "keepAliveMillis", DEFAULT_KEEP_ALIVE_MILLIS)))
+                        .build();
+    }
+
+    /**
+     * Returns the client shared by all skills in this JVM.
+     *
+     * @return the shared client
+     */
+    public static WebServiceClient getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Issues a GET request and passes the response body to the handler as a stream.
+     *
+     * @param url
+     *            the URL to request
+     * @param handler
+     *            reads the response body
+     * @return the value returned by the handler
+     * @throws IOException
+     *             if the request fails, times out or does not return a 2xx status
+     */
+    public <T> T get(final String url, final BodyHandler<T> handler) throws IOException {
+        return getIfChanged(url, null, new VersionedBodyHandler<T>() {
+            @Override
+            public T handle(InputStream body, String etag) throws IOException {
+                return handler.handle(body);
+            }
+        });
+    }
+
+    /**
+     * Issues a conditional GET request, which the server answers without a body if the resource
+     * still has the entity tag of a previous response.
+     *
+     * @param url
+     *            the URL to request
+     * @param etag
+     *            entity tag of the previous response, or null to always read the body
+     * @param handler
+     *            reads the response body and its entity tag
+     * @return the value returned by the handler, or null if the resource has not changed
+     * @throws IOException
+     *             if the request fails, times out or does not return a 2xx or 304 status
+     */
+    public <T> T getIfChanged(final String url, final String etag,
+            final VersionedBodyHandler<T> handler) throws IOException {
+        HttpGet request = new HttpGet(url);
+        if (etag != null) {
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        CloseableHttpResponse response = httpClient.execute(request);
+        try {
+            HttpEntity entity = response.getEntity();
+            int status = response.getStatusLine().getStatusCode();
+            if (etag != null && status == HttpStatus.SC_NOT_MODIFIED) {
+                EntityUtils.consumeQuietly(entity);
+                return null;
+            }
+            if (status < HttpStatus.SC_OK || status >= HttpStatus.SC_MULTIPLE_CHOICES) {
+                EntityUtils.consumeQuietly(entity);
+                throw new IOException("Unexpected status " + status + " from " + url);
+            }
+            if (entity == null) {
+                throw new IOException("Empty response from " + url);
+            }
+
+            Header etagHeader = response.getFirstHeader(HttpHeaders.ETAG);
+            InputStream body = entity.getContent();
+            try {
+                return handler.handle(body, etagHeader == null ? null : etagHeader.getValue());
+            } finally {
+                // fully reading the body lets the connection go back to the pool
+                EntityUtils.consumeQuietly(entity);
+                IOUtils.closeQuietly(body);
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Issues a GET request and returns the response body decoded with the given charset.
+     *
+     * @param url
+     *            the URL to request
+     * @param charset
+     *            charset of the response body
+     * @return the response body
+     * @throws IOException
+     *             if the request fails, times out or does not return a 2xx status
+     */
+    public String getString(final String url, final Charset charset) throws IOException {
+        log.debug("GET {}", url);
+        return get(url, new BodyHandler<String>() {
+            @Override
+            public String handle(InputStream body) throws IOException {
+                return IOUtils.toString(body, charset);
+            }
+        });
+    }
+
+    /**
+     * Uses the keep-alive timeout sent by the server, or a default if there is none.
+     */
+    private static final class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        private static final long MILLIS_PER_SECOND = 1000L;
+
+        private final long defaultKeepAliveMillis;
+
+        private KeepAliveStrategy(final long defaultKeepAliveMillis) {
+            this.defaultKeepAliveMillis = defaultKeepAliveMillis;
+        }
+
+        @Override
+        public long getKeepAliveDuration(final HttpResponse response, final HttpContext context) {
+            HeaderElementIterator it =
+                    new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement element = it.nextElement();
+                if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                    try {
+                        return Long.parseLong(element.getValue()) * MILLIS_PER_SECOND;
+                    } catch (NumberFormatException e) {
+                        break;
+                    }
+                }
+            }
+            return defaultKeepAliveMillis;
+        }
+    }
+}
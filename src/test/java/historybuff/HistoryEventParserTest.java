@@ -0,0 +1,115 @@
+package historybuff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link HistoryEventParser} gives the same events as the regular expression parser
+ * it replaced, on a Wikipedia extracts response in the format of the live API.
+ */
+public class HistoryEventParserTest {
+    @Test
+    public void matchesLegacyParserOnWikipediaResponse() throws IOException {
+        String json = readResource("March_14.json");
+
+        List<String> events = HistoryEventParser.parse(json);
+
+        assertEquals(16, events.size());
+        assertEquals(Legacy.parseJson(json), events);
+    }
+
+    @Test
+    public void formatsEventsMostRecentFirst() throws IOException {
+        List<String> events = HistoryEventParser.parse(readResource("March_14.json"));
+
+        assertEquals("In 1995, Norman Thagard becomes the first American astronaut to ride to space"
+                + " on board a Russian launch vehicle.", events.get(0));
+        assertEquals("In 1489, Catherine Cornaro, the Queen of Cyprus, sells her kingdom to Venice.",
+                events.get(events.size() - 1));
+        assertEquals("In 1903, The United States Senate ratifies the Hay"
+                + "Herr\\u00e1n Treaty, granting the United States the right to build the Panama"
+                + " Canal.", events.get(9));
+    }
+
+    @Test
+    public void returnsNoEventsWithoutEventsSection() {
+        assertTrue(HistoryEventParser.parse("{\"batchcomplete\":\"\",\"query\":{\"pages\":"
+                + "{\"-1\":{\"ns\":0,\"title\":\"Smarch 14\",\"missing\":\"\"}}}}").isEmpty());
+        assertTrue(HistoryEventParser.parse("\\nEvents\\n1489 \\u2013 No end").isEmpty());
+    }
+
+    private static String readResource(final String name) throws IOException {
+        InputStream in = HistoryEventParserTest.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing test resource " + name);
+        }
+        StringBuilder text = new StringBuilder();
+        Reader reader = new InputStreamReader(in, Charset.forName("US-ASCII"));
+        try {
+            char[] buffer = new char[4096];
+            for (int read; (read = reader.read(buffer)) != -1;) {
+                text.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+        return text.toString();
+    }
+
+    /**
+     * The parser of WikipediaEventSource before it was replaced by {@link HistoryEventParser}.
+     */
+    static final class Legacy {
+        private static final int DELIMITER_SIZE = 2;
+        private static final int SIZE_OF_EVENTS = 10;
+
+        private Legacy() {
+        }
+
+        static List<String> parseJson(String text) {
+            ArrayList<String> events = new ArrayList<String>();
+            int start = text.indexOf("\\nEvents\\n");
+            int end = text.indexOf("\\n\\n\\nBirths");
+            if (start == -1 || end < start + SIZE_OF_EVENTS) {
+                return events;
+            }
+            text = text.substring(start + SIZE_OF_EVENTS, end);
+            if (text.isEmpty()) {
+                return events;
+            }
+            int startIndex = 0, endIndex = 0;
+            while (endIndex != -1) {
+                endIndex = text.indexOf("\\n", startIndex + DELIMITER_SIZE);
+                String eventText =
+                        (endIndex == -1 ? text.substring(startIndex) : text.substring(startIndex,
+                                endIndex));
+                Pattern pattern = Pattern.compile("\\\\u2013\\s*");
+                Matcher matcher = pattern.matcher(eventText);
+                eventText = matcher.replaceAll("");
+                pattern = Pattern.compile("(^\\d+)");
+                matcher = pattern.matcher(eventText);
+                if (matcher.find()) {
+                    eventText = matcher.replaceFirst(matcher.group(1) + ",");
+                }
+                eventText = "In " + eventText;
+                startIndex = endIndex + 2;
+                events.add(eventText);
+            }
+            Collections.reverse(events);
+            return events;
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package lupine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import lupine.MediaControlChannel.PipelineException;
+import lupine.MediaControlChannel.Response;
+
+/**
+ * Runs {@link MediaControlChannel} and {@link MediaCommandQueue} against a scripted HTTP server on
+ * localhost, checking which requests are pipelined, answered and sent again.
+ */
+public class MediaControlChannelTest {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int READ_TIMEOUT_MILLIS = 300;
+
+    private ScriptedServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new ScriptedServer();
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void pipelinesResponsesWithContentLength() throws Exception {
+        server.onConnection(new Script() {
+            @Override
+            public void run(final Connection connection) throws IOException {
+                // nothing is answered before all requests arrived, so they must be pipelined
+                List<String> targets = connection.readRequests(3);
+                for (String target : targets) {
+                    connection.write("HTTP/1.1 200 OK\r\nContent-Length: " + target.length()
+                            + "\r\n\r\n" + target);
+                }
+                connection.awaitClose();
+            }
+        });
+        MediaControlChannel channel = createChannel(3);
+
+        List<Response> responses = channel.exchange(urls("/seek?seconds=10", "/volume?volume=5",
+                "/stop"));
+
+        assertBodies(responses, "/seek?seconds=10", "/volume?volume=5", "/stop");
+        assertEquals(Arrays.asList(Arrays.asList("/seek?seconds=10", "/volume?volume=5",
+                "/stop")), server.getRequests());
+    }
+
+    @Test
+    public void pipelinesChunkedResponses() throws Exception {
+        server.onConnection(new Script() {
+            @Override
+            public void run(final Connection connection) throws IOException {
+                connection.readRequests(2);
+                connection.write("HTTP/1.1 100 Continue\r\n\r\n"
+                        + "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                        + "5;name=value\r\nfirst\r\n0\r\nTrailer: ignored\r\n\r\n"
+                        + "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                        + "3\r\nsec\r\n3\r\nond\r\n0\r\n\r\n");
+                connection.awaitClose();
+            }
+        });
+        MediaControlChannel channel = createChannel(2);
+
+        List<Response> responses = channel.exchange(urls("/play?file=a", "/play?file=b"));
+
+        assertBodies(responses, "first", "second");
+        assertEquals(1, server.getRequests().size());
+    }
+
+    @Test
+    public void resendsOnlyUnansweredRequestsWhenServiceCloses() throws Exception {
+        server.onConnection(new Script() {
+            @Override
+            public void run(final Connection connection) throws IOException {
+                if (connection.getNumber() == 0) {
+                    // answers the first of the pipelined requests and closes, as HTTP/1.0 does
+                    connection.readRequests(3);
+                    connection.write("HTTP/1.0 200 OK\r\nContent-Length: 2\r\n\r\nok");
+                    connection.close();
+                } else {
+                    answerEach(connection);
+                }
+            }
+        });
+        MediaControlChannel channel = createChannel(3);
+
+        List<Response> responses = channel.exchange(urls("/a", "/b", "/c"));
+
+        assertBodies(responses, "ok", "/b", "/c");
+        assertEquals(Arrays.asList(Arrays.asList("/a", "/b", "/c"), Arrays.asList("/b", "/c")),
+                server.getRequests());
+
+        // pipelining stays off
+        channel.exchange(urls("/d", "/e"));
+        assertEquals(Arrays.asList("/b", "/c", "/d", "/e"), server.getRequests().get(1));
+    }
+
+    @Test
+    public void resendsOnceWhenIdleConnectionWasClosed() throws Exception {
+        server.onConnection(new Script() {
+            @Override
+            public void run(final Connection connection) throws IOException {
+                if (connection.getNumber() == 0) {
+                    connection.readRequests(1);
+                    connection.write("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nfirst");
+                    // the service drops the connection while it is idle
+                    connection.close();
+                } else {
+                    answerEach(connection);
+                }
+            }
+        });
+        MediaControlChannel channel = createChannel(4);
+        channel.exchange(urls("/first"));
+        server.awaitClosed(0);
+
+        List<Response> responses = channel.exchange(urls("/seek?seconds=10"));
+
+        assertBodies(responses, "/seek?seconds=10");
+        assertEquals(Arrays.asList(Collections.singletonList("/first"),
+                Collections.singletonList("/seek?seconds=10")), server.getRequests());
+    }
+
+    @Test
+    public void resendsIdleConnectionFailureOnlyOnce() throws Exception {
+        server.onConnection(new Script() {
+            @Override
+            public void run(final Connection connection) throws IOException {
+                connection.readRequests(1);
+                if (connection.getNumber() == 0) {
+                    connection.write("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nfirst");
+                }
+                connection.close();
+            }
+        });
+        MediaControlChannel channel = createChannel(4);
+        channel.exchange(urls("/first"));
+        server.awaitClosed(0);
+
+        try {
+            channel.exchange(urls("/play?file=a"));
+            fail("Expected a PipelineException");
+        } catch (PipelineException e) {
+            // the second connection was new, so the service may have run the request
+            assertFalse(e.isUndelivered());
+            assertTrue(e.getResponses().isEmpty());
+        }
+        assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void doesNotResendAfterReadTimeout() throws Exception {
+        server.onConnection(new Script() {
+            @Override
+            public void run(final Connection connection) throws IOException {
+                connection.readRequests(1);
+                connection.write("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nfirst");
+                // the next request is read but never answered
+                connection.readRequests(1);
+                connection.awaitClose();
+            }
+        });
+        MediaControlChannel channel = createChannel(4);
+        channel.exchange(urls("/first"));
+
+        try {
+            channel.exchange(urls("/seek?seconds=10"));
+            fail("Expected a PipelineException");
+        } catch (PipelineException e) {
+            assertFalse(e.isUndelivered());
+            assertTrue(e.getResponses().isEmpty());
+        }
+        assertEquals(Collections.singletonList(Arrays.asList("/first", "/seek?seconds=10")),
+                server.getRequests());
+    }
+
+    @Test
+    public void queueDoesNotRetrySeekAfterReadTimeout() throws Exception {
+        server.onConnection(new Script() {
+            @Override
+            public void run(final Connection connection) throws IOException {
+                connection.readRequests(1);
+                connection.awaitClose();
+            }
+        });
+        PlaybackState playback = new PlaybackState();
+        MediaCommandQueue commands =
+                new MediaCommandQueue(false, 4, playback, READ_TIMEOUT_MILLIS);
+
+        commands.seek(server.getUrl("/seek?seconds="), 10);
+
+        assertEquals(Collections.singletonList(Collections.singletonList("/seek?seconds=10")),
+                server.getRequests());
+        assertTrue(playback.getSnapshot().isUncertain());
+    }
+
+    @Test
+    public void queueRetriesVolumeAfterReadTimeout() throws Exception {
+        server.onConnection(new Script() {
+            @Override
+            public void run(final Connection connection) throws IOException {
+                if (connection.getNumber() == 0) {
+                    connection.readRequests(1);
+                    connection.awaitClose();
+                } else {
+                    answerEach(connection);
+                }
+            }
+        });
+        PlaybackState playback = new PlaybackState();
+        MediaCommandQueue commands =
+                new MediaCommandQueue(false, 4, playback, READ_TIMEOUT_MILLIS);
+
+        commands.volume(server.getUrl("/volume?volume="), 5);
+
+        assertEquals(Arrays.asList(Collections.singletonList("/volume?volume=5"),
+                Collections.singletonList("/volume?volume=5")), server.getRequests());
+        assertFalse(playback.getSnapshot().isUncertain());
+    }
+
+    private MediaControlChannel createChannel(final int maxPipelineDepth) throws IOException {
+        return new MediaControlChannel(server.getUrl("/"), maxPipelineDepth, READ_TIMEOUT_MILLIS);
+    }
+
+    private List<String> urls(final String... targets) {
+        List<String> urls = new ArrayList<String>(targets.length);
+        for (String target : targets) {
+            urls.add(server.getUrl(target));
+        }
+        return urls;
+    }
+
+    private static void assertBodies(final List<Response> responses, final String... bodies) {
+        assertEquals(bodies.length, responses.size());
+        for (int i = 0; i < bodies.length; i++) {
+            assertEquals(200, responses.get(i).getStatus());
+            assertEquals(bodies[i], responses.get(i).getBody());
+        }
+    }
+
+    /**
+     * Answers every request with its target as the body until the client closes the connection.
+     */
+    private static void answerEach(final Connection connection) throws IOException {
+        for (String target = connection.readRequest(); target != null; target =
+                connection.readRequest()) {
+            connection.write("HTTP/1.1 200 OK\r\nContent-Length: " + target.length() + "\r\n\r\n"
+                    + target);
+        }
+    }
+
+    /**
+     * What the server does on a connection.
+     */
+    private interface Script {
+        void run(Connection connection) throws IOException;
+    }
+
+    /**
+     * A connection accepted by the server, which records the targets of the requests read on it.
+     */
+    private static final class Connection {
+        private final int number;
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final List<String> targets;
+
+        private Connection(final int number, final Socket socket, final List<String> targets)
+                throws IOException {
+            this.number = number;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = socket.getOutputStream();
+            this.targets = targets;
+        }
+
+        /**
+         * Returns the number of connections accepted before this one.
+         */
+        int getNumber() {
+            return number;
+        }
+
+        /**
+         * Reads a request and returns its target, or null if the client closed the connection.
+         */
+        String readRequest() throws IOException {
+            String requestLine = readLine();
+            if (requestLine == null) {
+                return null;
+            }
+            for (String header = readLine(); header != null && !header.isEmpty(); header =
+                    readLine()) {
+                continue;
+            }
+            String target = requestLine.split(" ")[1];
+            synchronized (targets) {
+                targets.add(target);
+            }
+            return target;
+        }
+
+        List<String> readRequests(final int count) throws IOException {
+            List<String> read = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                String target = readRequest();
+                if (target == null) {
+                    throw new IOException("Connection closed after " + read);
+                }
+                read.add(target);
+            }
+            return read;
+        }
+
+        void write(final String response) throws IOException {
+            out.write(response.getBytes(ISO_8859_1));
+            out.flush();
+        }
+
+        /**
+         * Waits until the client closes the connection, reading and ignoring anything it sends.
+         */
+        void awaitClose() throws IOException {
+            while (in.read() >= 0) {
+                continue;
+            }
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int b = in.read(); b >= 0; b = in.read()) {
+                if (b == '\n') {
+                    return line.toString().trim();
+                }
+                line.append((char) b);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * An HTTP server on a free localhost port that runs a script on each connection it accepts.
+     */
+    private static final class ScriptedServer implements Runnable {
+        private final ServerSocket serverSocket =
+                new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        // guarded by this
+        private final List<List<String>> requests = new ArrayList<List<String>>();
+        private final List<Socket> sockets = new ArrayList<Socket>();
+        private final List<Boolean> closed = new ArrayList<Boolean>();
+        private Script script;
+
+        private ScriptedServer() throws IOException {
+            Thread acceptor = new Thread(this, "scripted-server");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        synchronized void onConnection(final Script script) {
+            this.script = script;
+        }
+
+        String getUrl(final String target) {
+            return "http://127.0.0.1:" + serverSocket.getLocalPort() + target;
+        }
+
+        /**
+         * Returns the request targets read so far, per connection in the order accepted.
+         */
+        synchronized List<List<String>> getRequests() {
+            List<List<String>> copy = new ArrayList<List<String>>(requests.size());
+            for (List<String> targets : requests) {
+                synchronized (targets) {
+                    copy.add(new ArrayList<String>(targets));
+                }
+            }
+            return copy;
+        }
+
+        /**
+         * Waits until the script of a connection has ended and the connection is closed.
+         */
+        synchronized void awaitClosed(final int number) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (closed.size() <= number || !closed.get(number)) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0) {
+                    throw new AssertionError("Connection " + number + " was not closed");
+                }
+                wait(left);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                final Connection connection;
+                final Script connectionScript;
+                synchronized (this) {
+                    List<String> targets = new ArrayList<String>();
+                    try {
+                        connection = new Connection(requests.size(), socket, targets);
+                    } catch (IOException e) {
+                        return;
+                    }
+                    requests.add(targets);
+                    sockets.add(socket);
+                    closed.add(Boolean.FALSE);
+                    connectionScript = script;
+                }
+                Thread handler = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            connectionScript.run(connection);
+                        } catch (IOException e) {
+                            // the client went away, which some tests expect
+                        } finally {
+                            try {
+                                socket.close();
+                            } catch (IOException e) {
+                                // already closed
+                            }
+                            markClosed(connection.getNumber());
+                        }
+                    }
+                }, "scripted-connection-" + connection.getNumber());
+                handler.setDaemon(true);
+                handler.start();
+            }
+        }
+
+        private synchronized void markClosed(final int number) {
+            closed.set(number, Boolean.TRUE);
+            notifyAll();
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+            synchronized (this) {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
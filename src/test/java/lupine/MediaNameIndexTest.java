@@ -0,0 +1,99 @@
+package lupine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks which listed names {@link MediaNameIndex} finds for spoken names, with seasons, episodes
+ * and recognition errors.
+ */
+public class MediaNameIndexTest {
+    private final MediaNameIndex index = MediaNameIndex.of(Arrays.asList("The.Office.S01",
+            "The.Office.S02", "Breaking.Bad.S01E01.mkv", "Breaking.Bad.S01E02.mkv",
+            "Breaking.Bad.S01E03.mkv", "Movie.mkv", "Movie.avi", "The.Simpsons.mp4", "KCBS",
+            "E4", "Channel 4"));
+
+    @Test
+    public void findsAllSeasonsOfTitle() {
+        assertEquals(Arrays.asList("The.Office.S01", "The.Office.S02"),
+                index.find("the office"));
+    }
+
+    @Test
+    public void findsSpokenSeason() {
+        assertEquals(Collections.singletonList("The.Office.S02"),
+                index.find("the office season two"));
+        assertEquals(Collections.singletonList("The.Office.S01"),
+                index.find("the office series 1"));
+        assertTrue(index.find("the office season 3").isEmpty());
+    }
+
+    @Test
+    public void findsSpokenEpisode() {
+        assertEquals(Collections.singletonList("Breaking.Bad.S01E03.mkv"),
+                index.find("breaking bad season one episode three"));
+    }
+
+    @Test
+    public void toleratesRecognitionErrors() {
+        assertEquals(Arrays.asList("The.Office.S01", "The.Office.S02"),
+                index.find("the offis"));
+        assertEquals(Collections.singletonList("The.Office.S02"),
+                index.find("the ofice season two"));
+        assertEquals(Arrays.asList("Breaking.Bad.S01E01.mkv", "Breaking.Bad.S01E02.mkv",
+                "Breaking.Bad.S01E03.mkv"), index.find("breakin bad"));
+        assertEquals(Collections.singletonList("The.Simpsons.mp4"), index.find("the simpson"));
+    }
+
+    @Test
+    public void joinsSpelledOutLetters() {
+        assertEquals(Collections.singletonList("KCBS"), index.find("k c b s"));
+    }
+
+    @Test
+    public void returnsAllNamesWithSameKey() {
+        assertEquals(Arrays.asList("Movie.mkv", "Movie.avi"), index.find("movie"));
+    }
+
+    @Test
+    public void matchesNameThatIsOnlyEpisodeNumber() {
+        assertEquals(Collections.singletonList("E4"), index.find("e4"));
+        assertEquals(Collections.singletonList("E4"), index.find("e 4"));
+        assertEquals(Collections.singletonList("Channel 4"), index.find("channel four"));
+    }
+
+    @Test
+    public void returnsNoNamesForMiss() {
+        assertTrue(index.find("casablanca").isEmpty());
+        assertTrue(index.find("").isEmpty());
+        assertTrue(index.find(null).isEmpty());
+    }
+
+    @Test
+    public void sharesPhoneticKeyOfMisspelledWords() {
+        assertEquals(MediaNameIndex.getPhoneticKey("the office"),
+                MediaNameIndex.getPhoneticKey("the offis"));
+        assertEquals(MediaNameIndex.getPhoneticKey("breaking bad"),
+                MediaNameIndex.getPhoneticKey("breakin bad"));
+    }
+
+    @Test
+    public void takesSeasonAndEpisodeOutOfTitle() {
+        int[] seasonEpisode = new int[2];
+
+        assertEquals("breaking bad", MediaNameIndex.normalize("Breaking.Bad.S01E02.mkv",
+                seasonEpisode));
+        assertEquals(1, seasonEpisode[0]);
+        assertEquals(2, seasonEpisode[1]);
+
+        assertEquals("e4", MediaNameIndex.normalize("E4", seasonEpisode));
+        assertEquals(MediaNameIndex.UNSPECIFIED, seasonEpisode[0]);
+        assertEquals(MediaNameIndex.UNSPECIFIED, seasonEpisode[1]);
+    }
+}
@@ -0,0 +1,114 @@
+package scorekeeper.storage;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+
+/**
+ * Runs the storage contract against {@link DynamoDbScoreKeeperStorage}, over an in-memory table
+ * that stores items as DynamoDB would: the game data marshalled to JSON or binary, and the
+ * version checked and incremented like the DynamoDBMapper does.
+ */
+public class DynamoDbScoreKeeperStorageTest extends ScoreKeeperStorageContractTest {
+    private InMemoryDynamoDbClient client;
+
+    @Override
+    protected ScoreKeeperStorage createStorage() {
+        client = new InMemoryDynamoDbClient();
+        return new DynamoDbScoreKeeperStorage(client, false);
+    }
+
+    @Test
+    public void readsItemsOfEitherFormat() {
+        long version = storage.save(CUSTOMER, gameData("alice", 1L), 0L);
+        assertNotNull(client.getItem(CUSTOMER).getGameData());
+
+        // switching to binary converts the item on its next save
+        DynamoDbScoreKeeperStorage binary = new DynamoDbScoreKeeperStorage(client, true);
+        assertGameData(binary.load(CUSTOMER), "alice", 1L);
+        binary.save(CUSTOMER, gameData("alice", 2L, "bob", null), version);
+
+        assertNull(client.getItem(CUSTOMER).getGameData());
+        assertNotNull(client.getItem(CUSTOMER).getBinaryData());
+        assertGameData(storage.load(CUSTOMER), "alice", 2L, "bob", null);
+    }
+
+    /**
+     * Keeps items in memory instead of calling DynamoDB.
+     */
+    private static final class InMemoryDynamoDbClient extends ScoreKeeperDynamoDbClient {
+        private final Map<String, StoredItem> items = new HashMap<String, StoredItem>();
+
+        private InMemoryDynamoDbClient() {
+            // the client is never called; creating it makes no request
+            super(new AmazonDynamoDBClient());
+        }
+
+        @Override
+        public synchronized ScoreKeeperUserDataItem loadItem(
+                final ScoreKeeperUserDataItem tableItem) {
+            return getItem(tableItem.getCustomerId());
+        }
+
+        @Override
+        public synchronized void saveItem(final ScoreKeeperUserDataItem tableItem) {
+            StoredItem stored = items.get(tableItem.getCustomerId());
+            Long expected = tableItem.getVersion();
+            if (expected == null ? stored != null : stored == null
+                    || stored.version != expected.longValue()) {
+                throw new ConditionalCheckFailedException("Version mismatch");
+            }
+            long version = expected == null ? 1L : expected.longValue() + 1;
+            String data =
+                    tableItem.getGameData() == null ? null
+                            : new ScoreKeeperUserDataItem.ScoreKeeperGameDataMarshaller()
+                                    .marshall(tableItem.getGameData());
+            byte[] binaryData = null;
+            if (tableItem.getBinaryData() != null) {
+                ByteBuffer buffer = tableItem.getBinaryData().duplicate();
+                binaryData = new byte[buffer.remaining()];
+                buffer.get(binaryData);
+            }
+            items.put(tableItem.getCustomerId(), new StoredItem(data, binaryData, version));
+            tableItem.setVersion(Long.valueOf(version));
+        }
+
+        private synchronized ScoreKeeperUserDataItem getItem(final String customerId) {
+            StoredItem stored = items.get(customerId);
+            if (stored == null) {
+                return null;
+            }
+            ScoreKeeperUserDataItem item = new ScoreKeeperUserDataItem();
+            item.setCustomerId(customerId);
+            if (stored.data != null) {
+                item.setGameData(new ScoreKeeperUserDataItem.ScoreKeeperGameDataMarshaller()
+                        .unmarshall(ScoreKeeperGameData.class, stored.data));
+            }
+            if (stored.binaryData != null) {
+                item.setBinaryData(ByteBuffer.wrap(stored.binaryData.clone()));
+            }
+            item.setVersion(Long.valueOf(stored.version));
+            return item;
+        }
+    }
+
+    private static final class StoredItem {
+        private final String data;
+        private final byte[] binaryData;
+        private final long version;
+
+        private StoredItem(final String data, final byte[] binaryData, final long version) {
+            this.data = data;
+            this.binaryData = binaryData;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package scorekeeper.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the storage contract against {@link LocalScoreKeeperStorage}, and checks that the log is
+ * replayed, cut off after a torn record and compacted.
+ */
+public class LocalScoreKeeperStorageTest extends ScoreKeeperStorageContractTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Override
+    protected ScoreKeeperStorage createStorage() throws IOException {
+        directory = folder.newFolder("scorekeeper");
+        return open();
+    }
+
+    @After
+    public void closeStorage() throws IOException {
+        ((LocalScoreKeeperStorage) storage).close();
+    }
+
+    @Test
+    public void replaysLogWhenReopened() throws IOException {
+        long first = storage.save(CUSTOMER, gameData("alice", 1L), 0L);
+        long second = storage.save(CUSTOMER, gameData("alice", 2L, "bob", 5L), first);
+        storage.save("other", gameData("carol", 7L), 0L);
+
+        reopen();
+
+        assertEquals(2, ((LocalScoreKeeperStorage) storage).size());
+        ScoreKeeperGameData loaded = storage.load(CUSTOMER);
+        assertGameData(loaded, "alice", 2L, "bob", 5L);
+        assertEquals(second, loaded.getVersion());
+        assertGameData(storage.load("other"), "carol", 7L);
+        assertEquals(ScoreKeeperStorage.CONFLICT,
+                storage.save(CUSTOMER, gameData("alice", 3L), first));
+    }
+
+    @Test
+    public void truncatesTornRecord() throws IOException {
+        long version = storage.save(CUSTOMER, gameData("alice", 1L), 0L);
+        storage.save("other", gameData("carol", 7L), 0L);
+        long complete = getLog().length();
+        storage.save(CUSTOMER, gameData("alice", 2L), version);
+        long torn = getLog().length() - 3;
+        ((LocalScoreKeeperStorage) storage).close();
+
+        // the process was killed while writing the last record
+        try (RandomAccessFile log = new RandomAccessFile(getLog(), "rw")) {
+            log.setLength(torn);
+        }
+        storage = open();
+
+        assertEquals(complete, getLog().length());
+        assertGameData(storage.load(CUSTOMER), "alice", 1L);
+        assertGameData(storage.load("other"), "carol", 7L);
+        long next = storage.save(CUSTOMER, gameData("alice", 3L), version);
+        reopen();
+        assertGameData(storage.load(CUSTOMER), "alice", 3L);
+        assertEquals(next, storage.load(CUSTOMER).getVersion());
+    }
+
+    @Test
+    public void truncatesCorruptRecord() throws IOException {
+        storage.save(CUSTOMER, gameData("alice", 1L), 0L);
+        long complete = getLog().length();
+        storage.save("other", gameData("carol", 7L), 0L);
+        ((LocalScoreKeeperStorage) storage).close();
+
+        // flip the last byte of the last record's payload, so its checksum fails
+        try (RandomAccessFile log = new RandomAccessFile(getLog(), "rw")) {
+            log.seek(log.length() - 1);
+            int last = log.read();
+            log.seek(log.length() - 1);
+            log.write(last ^ 0xff);
+        }
+        storage = open();
+
+        assertEquals(complete, getLog().length());
+        assertGameData(storage.load(CUSTOMER), "alice", 1L);
+        assertNull(storage.load("other"));
+    }
+
+    @Test
+    public void compactsToLatestRecords() throws IOException {
+        long version = 0L;
+        for (long score = 0; score < 100; score++) {
+            version = storage.save(CUSTOMER, gameData("alice", score, "bob", -score), version);
+        }
+        storage.save("other", gameData("carol", 7L), 0L);
+        long before = getLog().length();
+
+        ((LocalScoreKeeperStorage) storage).compact(true);
+
+        long after = getLog().length();
+        assertTrue("log of " + after + " bytes not smaller than " + before, after < before / 10);
+        assertGameData(storage.load(CUSTOMER), "alice", 99L, "bob", -99L);
+
+        // appends go to the compacted log
+        version = storage.save(CUSTOMER, gameData("alice", 100L), version);
+        reopen();
+        assertGameData(storage.load(CUSTOMER), "alice", 100L);
+        assertEquals(version, storage.load(CUSTOMER).getVersion());
+        assertGameData(storage.load("other"), "carol", 7L);
+    }
+
+    @Test
+    public void skipsCompactionOfLittleGarbage() throws IOException {
+        long version = storage.save(CUSTOMER, gameData("alice", 1L), 0L);
+        storage.save(CUSTOMER, gameData("alice", 2L), version);
+        long before = getLog().length();
+
+        ((LocalScoreKeeperStorage) storage).compact(false);
+
+        assertEquals(before, getLog().length());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsFileThatIsNotALog() throws IOException {
+        ((LocalScoreKeeperStorage) storage).close();
+        try (RandomAccessFile log = new RandomAccessFile(getLog(), "rw")) {
+            log.setLength(0);
+            log.writeBytes("not a log");
+        }
+        storage = open();
+    }
+
+    private LocalScoreKeeperStorage open() throws IOException {
+        return new LocalScoreKeeperStorage(directory, false, 0L);
+    }
+
+    private void reopen() throws IOException {
+        ((LocalScoreKeeperStorage) storage).close();
+        storage = open();
+    }
+
+    private File getLog() {
+        return new File(directory, LocalScoreKeeperStorage.LOG_FILE);
+    }
+}
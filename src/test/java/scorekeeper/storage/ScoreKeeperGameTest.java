@@ -0,0 +1,45 @@
+package scorekeeper.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static scorekeeper.storage.ScoreKeeperStorageContractTest.assertGameData;
+import static scorekeeper.storage.ScoreKeeperStorageContractTest.gameData;
+
+import org.junit.Test;
+
+/**
+ * Checks that a game shares stored game data until it is changed, and never changes it.
+ */
+public class ScoreKeeperGameTest {
+    @Test
+    public void sharesStoredDataWhileReading() {
+        ScoreKeeperGameData stored = gameData("alice", 1L, "bob", 4L).share();
+        ScoreKeeperGame game = ScoreKeeperGame.fromStoredData(null, stored);
+
+        assertEquals(4L, game.getScoreForPlayer("bob"));
+        assertEquals("bob", game.getLeaderboardPlayer(0));
+        assertEquals(2, game.getRankOfPlayer("alice"));
+        assertEquals(false, game.addPlayer("alice"));
+
+        assertSame(stored, game.getGameData());
+    }
+
+    @Test
+    public void copiesStoredDataBeforeFirstChange() {
+        ScoreKeeperGameData stored = gameData("alice", 1L, "bob", 4L).share();
+        ScoreKeeperGame game = ScoreKeeperGame.fromStoredData(null, stored);
+
+        game.addScoreForPlayer("alice", 5L);
+        ScoreKeeperGameData changed = game.getGameData();
+        game.addPlayer("carol");
+        game.resetScores();
+
+        assertNotSame(stored, changed);
+        assertSame(changed, game.getGameData());
+        assertSame(stored, game.getBaseData());
+        assertGameData(stored, "alice", 1L, "bob", 4L);
+        assertEquals("bob", stored.getLeaderboard().getName(0));
+        assertGameData(game.getGameData(), "alice", 0L, "bob", 0L, "carol", 0L);
+    }
+}
@@ -0,0 +1,137 @@
+package scorekeeper.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests every {@link ScoreKeeperStorage} must pass. Each backend extends this class and provides
+ * the storage under test.
+ */
+public abstract class ScoreKeeperStorageContractTest {
+    protected static final String CUSTOMER = "amzn1.account.customer";
+
+    protected ScoreKeeperStorage storage;
+
+    /**
+     * Creates an empty storage. Called before each test.
+     */
+    protected abstract ScoreKeeperStorage createStorage() throws Exception;
+
+    @Before
+    public void setUpStorage() throws Exception {
+        storage = createStorage();
+    }
+
+    @Test
+    public void loadsNothingForNewCustomer() {
+        assertNull(storage.load(CUSTOMER));
+    }
+
+    @Test
+    public void savesAndLoadsGameData() {
+        long version = storage.save(CUSTOMER, gameData("alice", 3L, "bob", -2L), 0L);
+
+        assertNotEquals(ScoreKeeperStorage.CONFLICT, version);
+        ScoreKeeperGameData loaded = storage.load(CUSTOMER);
+        assertGameData(loaded, "alice", 3L, "bob", -2L);
+        assertEquals(version, loaded.getVersion());
+    }
+
+    @Test
+    public void keepsCustomersApart() {
+        storage.save(CUSTOMER, gameData("alice", 1L), 0L);
+        storage.save("other", gameData("carol", 2L), 0L);
+
+        assertGameData(storage.load(CUSTOMER), "alice", 1L);
+        assertGameData(storage.load("other"), "carol", 2L);
+    }
+
+    @Test
+    public void replacesGameDataOfExpectedVersion() {
+        long first = storage.save(CUSTOMER, gameData("alice", 1L), 0L);
+        long second = storage.save(CUSTOMER, gameData("alice", 4L, "bob", 0L), first);
+
+        assertNotEquals(ScoreKeeperStorage.CONFLICT, second);
+        assertNotEquals(first, second);
+        ScoreKeeperGameData loaded = storage.load(CUSTOMER);
+        assertGameData(loaded, "alice", 4L, "bob", 0L);
+        assertEquals(second, loaded.getVersion());
+    }
+
+    @Test
+    public void rejectsSaveOfStaleVersion() {
+        long first = storage.save(CUSTOMER, gameData("alice", 1L), 0L);
+        storage.save(CUSTOMER, gameData("alice", 2L), first);
+
+        assertEquals(ScoreKeeperStorage.CONFLICT,
+                storage.save(CUSTOMER, gameData("alice", 9L), first));
+        assertGameData(storage.load(CUSTOMER), "alice", 2L);
+    }
+
+    @Test
+    public void rejectsNewGameWhenOneIsStored() {
+        storage.save(CUSTOMER, gameData("alice", 1L), 0L);
+
+        assertEquals(ScoreKeeperStorage.CONFLICT,
+                storage.save(CUSTOMER, gameData("bob", 1L), 0L));
+        assertGameData(storage.load(CUSTOMER), "alice", 1L);
+    }
+
+    @Test
+    public void loadedGameDataIsNotShared() {
+        storage.save(CUSTOMER, gameData("alice", 1L), 0L);
+
+        storage.load(CUSTOMER).getScores().put("alice", Long.valueOf(100L));
+
+        assertGameData(storage.load(CUSTOMER), "alice", 1L);
+    }
+
+    @Test
+    public void daoMergesConcurrentSaves() {
+        ScoreKeeperDao dao = new ScoreKeeperDao(storage);
+        dao.saveGameData(CUSTOMER, null, gameData("alice", 0L, "bob", 0L));
+        ScoreKeeperGameData base = dao.loadGameData(CUSTOMER);
+
+        // two devices read the same game and change different scores
+        ScoreKeeperGameData first = base.copy();
+        first.getScores().put("alice", Long.valueOf(5L));
+        ScoreKeeperGameData second = base.copy();
+        second.getScores().put("bob", Long.valueOf(3L));
+        second.addPlayer("carol");
+
+        dao.saveGameData(CUSTOMER, base, first);
+        ScoreKeeperGameData saved = dao.saveGameData(CUSTOMER, base, second);
+
+        assertGameData(saved, "alice", 5L, "bob", 3L, "carol", null);
+        assertGameData(storage.load(CUSTOMER), "alice", 5L, "bob", 3L, "carol", null);
+    }
+
+    /**
+     * Creates game data from pairs of player name and score, a null score for a player without
+     * one.
+     */
+    protected static ScoreKeeperGameData gameData(final Object... playersAndScores) {
+        ScoreKeeperGameData gameData = ScoreKeeperGameData.newInstance();
+        for (int i = 0; i < playersAndScores.length; i += 2) {
+            String playerName = (String) playersAndScores[i];
+            gameData.addPlayer(playerName);
+            if (playersAndScores[i + 1] != null) {
+                gameData.getScores().put(playerName, (Long) playersAndScores[i + 1]);
+            }
+        }
+        return gameData;
+    }
+
+    protected static void assertGameData(final ScoreKeeperGameData actual,
+            final Object... playersAndScores) {
+        ScoreKeeperGameData expected = gameData(playersAndScores);
+        assertEquals(expected.getPlayers(), actual.getPlayers());
+        assertEquals(expected.getScores(), new HashMap<String, Long>(actual.getScores()));
+    }
+}